@@ -27,6 +27,17 @@ dependencies {
     }
 }
 
+// Benchmarks, run with ./gradlew jmh, JMH options go in -Pjmh="..."
+val jmh by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath + sourceSets.main.get().runtimeClasspath
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
 license {
     properties {
         this["name"] = "timings-core"
@@ -80,6 +91,14 @@ tasks {
         archiveClassifier.set("nonshaded")
     }
 
+    register<JavaExec>("jmh") {
+        group = "verification"
+        description = "Runs the benchmarks."
+        classpath = jmh.runtimeClasspath
+        mainClass.set("org.openjdk.jmh.Main")
+        args = (project.findProperty("jmh") as String?)?.split(' ') ?: emptyList()
+    }
+
     shadowJar {
         dependsOn(jar)
         mergeServiceFiles()
@@ -0,0 +1,91 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of registered timings by group and name from several threads at
+ * once, as plugins do per event from the server and async threads. Lookups
+ * should neither lock nor allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+public class RegistryLookupBenchmark {
+
+    @Param({"16"})
+    public int groups;
+    @Param({"10000"})
+    public int handlers;
+
+    private VanillaTimingsEngine engine;
+    private String[] groupIds;
+    private String[] names;
+
+    @Setup
+    public void setup() {
+        this.engine = new VanillaTimingsEngine(LogManager.getLogger("Timings"), new StandardTimingsEnvironment(),
+                new TimingIdentifier("Minecraft", "Server Tick", null, false), false);
+        this.groupIds = new String[this.handlers];
+        this.names = new String[this.handlers];
+        for (int i = 0; i < this.handlers; i++) {
+            this.groupIds[i] = "plugin-" + i % this.groups;
+            this.names[i] = "Event Handler " + i;
+            this.engine.of(this.groupIds[i], this.names[i], null);
+        }
+    }
+
+    @Benchmark
+    public AbstractTiming lookup(final Cursor cursor) {
+        final int i = cursor.next;
+        cursor.next = i + 1 == this.handlers ? 0 : i + 1;
+        return this.engine.of(this.groupIds[i], this.names[i], null);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import org.apache.logging.log4j.LogManager;
+import org.inspirenxe.timings.core.export.BinaryReportWriter;
+import org.inspirenxe.timings.core.history.HistoryRecord;
+import org.inspirenxe.timings.core.history.MinuteReport;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The peak heap while streaming a report of 12 history records through gzip
+ * into a stream dropping the bytes. Records are decoded one at a time, so
+ * nothing the size of the report is held. The peak includes garbage not
+ * collected yet, run with -prof gc for the allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class ReportExportBenchmark {
+
+    private static final int RECORDS = 12;
+    private static final int CHILDREN = 4;
+
+    @Param({"1000", "10000"})
+    public int handlers;
+    @Param({"json", "binary"})
+    public String format;
+
+    private HistoryRecord[] records;
+
+    @Setup
+    public void setup() {
+        final VanillaTimingsEngine engine = new VanillaTimingsEngine(LogManager.getLogger("Timings"), new StandardTimingsEnvironment(),
+                new TimingIdentifier("Minecraft", "Server Tick", null, false), false);
+        // The engine tick is left out, stopping it ticks the server
+        engine.mainThread = Thread.currentThread();
+        final AbstractTiming[] timings = new AbstractTiming[this.handlers];
+        final AbstractTiming[] children = new AbstractTiming[ReportExportBenchmark.CHILDREN];
+        for (int i = 0; i < timings.length; i++) {
+            timings[i] = engine.of("Handler " + i);
+        }
+        for (int i = 0; i < children.length; i++) {
+            children[i] = engine.of("Child " + i);
+        }
+        this.records = new HistoryRecord[ReportExportBenchmark.RECORDS];
+        for (int record = 0; record < this.records.length; record++) {
+            for (final AbstractTiming timing : timings) {
+                timing.start();
+                for (final AbstractTiming child : children) {
+                    child.start();
+                    child.stop();
+                }
+                timing.stop();
+            }
+            engine.dataStore.processTick(0, engine, false);
+            final TimingDataStore frozen = engine.dataStore.freeze();
+            this.records[record] = new HistoryRecord(engine, frozen, record * 60L, record * 60L + 60, new MinuteReport[0], 0,
+                    record == 0 ? null : this.records[record - 1]);
+            engine.dataStore.recycle(frozen);
+        }
+    }
+
+    @Benchmark
+    public long export(final Heap heap) throws IOException {
+        final NullOutputStream sink = new NullOutputStream();
+        final OutputStream out = new GZIPOutputStream(sink);
+        if ("binary".equals(this.format)) {
+            try (final BinaryReportWriter writer = new BinaryReportWriter(out)) {
+                writer.writeHeader(new JsonObject(), this.records.length);
+                for (final HistoryRecord record : this.records) {
+                    record.writeBinary(writer);
+                }
+            }
+        } else {
+            try (final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))) {
+                writer.beginObject().name("data").beginArray();
+                for (final HistoryRecord record : this.records) {
+                    record.writeJson(writer);
+                }
+                writer.endArray().endObject();
+            }
+        }
+        heap.reportBytes = sink.size;
+        return sink.size;
+    }
+
+    /**
+     * The peak heap used during an export, over the heap used before it.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+
+        public long peakBytes;
+        public long reportBytes;
+        private long baseline;
+
+        @Setup(Level.Invocation)
+        public void before() {
+            System.gc();
+            long used = 0;
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pool.resetPeakUsage();
+                    used += pool.getUsage().getUsed();
+                }
+            }
+            this.baseline = used;
+        }
+
+        @TearDown(Level.Invocation)
+        public void after() {
+            long peak = 0;
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            this.peakBytes = peak - this.baseline;
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+
+        long size;
+
+        @Override
+        public void write(final int b) {
+            this.size++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            this.size += len;
+        }
+    }
+}
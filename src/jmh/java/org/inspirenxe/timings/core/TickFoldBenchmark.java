@@ -0,0 +1,96 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import org.apache.logging.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of a tick touching a few handlers, out of many timed since the
+ * last reset. Folding only the touched ones keeps it flat as the amount of
+ * handlers grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TickFoldBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int handlers;
+    @Param({"100"})
+    public int touched;
+
+    private VanillaTimingsEngine engine;
+    private AbstractTiming world;
+    private AbstractTiming[] timings;
+    private int next;
+
+    @Setup
+    public void setup() {
+        this.engine = new VanillaTimingsEngine(LogManager.getLogger("Timings"), new StandardTimingsEnvironment(),
+                new TimingIdentifier("Minecraft", "Server Tick", null, false), false);
+        // The engine tick is left out, stopping it ticks the server
+        this.engine.mainThread = Thread.currentThread();
+        this.world = this.engine.of("World Tick");
+        this.timings = new AbstractTiming[this.handlers];
+        this.world.start();
+        for (int i = 0; i < this.timings.length; i++) {
+            this.timings[i] = this.engine.of("Handler " + i);
+            this.timings[i].start();
+            this.timings[i].stop();
+        }
+        this.world.stop();
+        this.engine.dataStore.processTick(0, this.engine, false);
+    }
+
+    @Benchmark
+    public void tick() {
+        // Every tick touches the next handlers in turn
+        this.world.start();
+        for (int i = 0; i < this.touched; i++) {
+            final AbstractTiming timing = this.timings[this.next];
+            this.next = this.next + 1 == this.timings.length ? 0 : this.next + 1;
+            timing.start();
+            timing.stop();
+        }
+        this.world.stop();
+        this.engine.dataStore.processTick(0, this.engine, false);
+    }
+}
@@ -25,25 +25,47 @@
 package org.inspirenxe.timings.core;
 
 import co.aikar.timings.Timing;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import org.inspirenxe.timings.core.util.LoadingIntMap;
+import org.inspirenxe.timings.core.util.LoadingIntTable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 public abstract class AbstractTiming implements Timing {
 
-    private static int idPool = 1;
+    private static final AtomicInteger idPool = new AtomicInteger(1);
+    // Start of an invocation that is counted but not clocked
+    private static final long UNCLOCKED = Long.MIN_VALUE;
     private final VanillaTimingsEngine manager;
-    public final int id = AbstractTiming.idPool++;
+    public final int id = AbstractTiming.idPool.getAndIncrement();
     public final String name;
+    public final String groupName;
     public final boolean verbose;
-    public final Int2ObjectOpenHashMap<TimingData> children = new LoadingIntMap<>(TimingData::new);
+    public final LoadingIntTable<TimingData> children;
     public final TimingData data;
     public final AbstractTiming group;
     private AbstractTiming parent;
+    // Only used by the thread ticking the engine, other threads keep their
+    // own in a ThreadTimingContext
     public long start = 0;
     public int timingDepth = 0;
+    private long startTick;
+    // Bytes the thread had allocated at the start, -1 if not tracked
+    private long startAllocated = -1;
+    // CPU time of the thread at the start, -1 if not tracked
+    private long startCpuTime = -1;
+    private int sampleCounter;
+    // Flight recorder event of the current invocation, reused by the next
+    @Nullable private Object jfrEvent;
+    private boolean jfrBegun;
     public boolean added;
     public boolean timed;
     public boolean enabled;
+    public int samplingRate = 1;
+    public boolean trackAllocations;
+    public boolean trackCpuTime;
+    // Steps this timing was demoted by the overhead governor
+    int demotion = OverheadGovernor.NOT_DEMOTED;
 
     protected AbstractTiming(final VanillaTimingsEngine manager, final TimingIdentifier id) {
         this.manager = manager;
@@ -56,28 +78,27 @@ public abstract class AbstractTiming implements Timing {
             this.verbose = false;
         }
 
-        this.data = new TimingData(this.id);
+        this.groupName = id.groupId;
+        this.data = new TimingData(manager.dataStore, this.id, this);
+        this.children = new LoadingIntTable<>(childId -> new TimingData(manager.dataStore, childId, this));
         this.group = id.group;
 
-        this.manager.group(id.groupId).timings.add(this);
         this.checkEnabled();
     }
 
     final void checkEnabled() {
-        this.enabled = this.manager.environment.enabled() && (!this.verbose || this.manager.environment.verboseEnabled());
-    }
-
-    void processTick(final boolean violated) {
-        if (this.timingDepth != 0 || this.data.currentTickCount == 0) {
-            this.timingDepth = 0;
-            this.start = 0;
-            return;
-        }
-
-        this.data.processTick(violated);
-        for (final TimingData data : this.children.values()) {
-            data.processTick(violated);
+        this.enabled = this.manager.environment.enabled() && (!this.verbose || this.manager.environment.verboseEnabled())
+                && this.demotion != OverheadGovernor.DISABLED;
+        // The engine tick decides whether a tick was violated, never sample it
+        this.samplingRate = this.manager.isSpecialTiming(this) ? 1
+                : Math.max(1, this.manager.environment.samplingRate(this.groupName, this.verbose));
+        if (this.demotion == OverheadGovernor.SAMPLED) {
+            this.samplingRate = Math.max(this.samplingRate, OverheadGovernor.DEMOTED_SAMPLING_RATE);
         }
+        this.trackAllocations = ThreadProbe.ALLOCATIONS && this.manager.environment.trackAllocations(this.groupName);
+        // Special timings run once a tick, tracking their CPU time is always cheap
+        this.trackCpuTime = ThreadProbe.CPU_TIME
+                && (this.manager.isSpecialTiming(this) || this.manager.environment.trackCpuTime(this.groupName));
     }
 
     @Override
@@ -85,9 +106,32 @@ public abstract class AbstractTiming implements Timing {
         if (!this.enabled) {
             return this;
         }
+        if (Thread.currentThread() != this.manager.mainThread) {
+            this.manager.threadContext().start(this);
+            return this;
+        }
 
+        if (this.timingDepth != 0 && this.startTick != this.manager.ticksTracker.timedTicks) {
+            // Left running when its tick ended without ever being added to,
+            // so the end of tick fold never saw it
+            this.timingDepth = 0;
+        }
         if (++this.timingDepth == 1) {
-            this.start = System.nanoTime();
+            this.startTick = this.manager.ticksTracker.timedTicks;
+            if (this.samplingRate == 1 || ++this.sampleCounter >= this.samplingRate) {
+                this.sampleCounter = 0;
+                // Probed outside of the clocked time
+                this.startAllocated = this.trackAllocations ? ThreadProbe.allocatedBytes() : -1;
+                this.startCpuTime = this.trackCpuTime ? ThreadProbe.cpuTime() : -1;
+                if (this.manager.jfrSections && this != this.manager.engineTickTiming) {
+                    this.beginJfrEvent();
+                } else {
+                    this.jfrBegun = false;
+                }
+                this.start = System.nanoTime();
+            } else {
+                this.start = AbstractTiming.UNCLOCKED;
+            }
             this.parent = this.manager.currentTiming;
             this.manager.currentTiming = this;
         }
@@ -100,20 +144,63 @@ public abstract class AbstractTiming implements Timing {
             this.start = 0;
             return;
         }
+        if (Thread.currentThread() != this.manager.mainThread) {
+            this.manager.threadContext().stop(this);
+            return;
+        }
 
         if (--this.timingDepth == 0 && this.start != 0) {
-            this.addDiff(System.nanoTime() - this.start);
+            this.manager.timedSections++;
+            if (this.start == AbstractTiming.UNCLOCKED) {
+                // Unclocked invocations only count, the clocked one stands in
+                // for the rest of its sample
+                this.addDiff(0);
+            } else {
+                final long diff = System.nanoTime() - this.start;
+                if (this.jfrBegun) {
+                    this.commitJfrEvent();
+                }
+                if (this.startAllocated != -1) {
+                    this.data.addAllocatedBytes((ThreadProbe.allocatedBytes() - this.startAllocated) * this.samplingRate);
+                    this.startAllocated = -1;
+                }
+                if (this.startCpuTime != -1) {
+                    this.data.addCpuTime((ThreadProbe.cpuTime() - this.startCpuTime) * this.samplingRate);
+                    this.startCpuTime = -1;
+                }
+                this.data.record(diff);
+                this.addDiff(diff * this.samplingRate);
+            }
             this.start = 0;
         }
     }
 
     @Override
     public void abort() {
-        if (this.enabled && this.timingDepth > 0) {
+        if (this.enabled && Thread.currentThread() != this.manager.mainThread) {
+            this.manager.threadContext().abort(this);
+        } else if (this.enabled && this.timingDepth > 0) {
             this.start = 0;
         }
     }
 
+    private void beginJfrEvent() {
+        if (this.jfrEvent == null) {
+            this.jfrEvent = JfrEvents.SECTION.newEvent();
+        }
+        JfrEvents.begin(this.jfrEvent);
+        this.jfrBegun = true;
+    }
+
+    private void commitJfrEvent() {
+        this.jfrBegun = false;
+        if (JfrEvents.end(this.jfrEvent)) {
+            JfrEvents.set(this.jfrEvent, JfrEvents.SECTION_HANDLER, this.name);
+            JfrEvents.set(this.jfrEvent, JfrEvents.SECTION_GROUP, this.groupName);
+            JfrEvents.commit(this.jfrEvent);
+        }
+    }
+
     void addDiff(final long diff) {
         if (this.manager.currentTiming == this) {
             this.manager.currentTiming = this.parent;
@@ -122,26 +209,35 @@ public abstract class AbstractTiming implements Timing {
             }
         }
         this.data.add(diff);
+        this.markAdded();
+        if (this.group != null) {
+            this.group.addDiff(diff);
+            this.group.children.get(this.id).add(diff);
+        }
+    }
+
+    void markAdded() {
         if (!this.added) {
             this.added = true;
             this.timed = true;
             this.manager.timings.add(this);
         }
-        if (this.group != null) {
-            this.group.addDiff(diff);
-            this.group.children.get(this.id).add(diff);
-        }
     }
 
     public void reset(final boolean full) {
-        this.data.reset();
         if (full) {
+            // Soft resets follow a freeze of the store, which already
+            // swapped the totals for cleared ones
+            this.data.reset();
+            // Children keep their slot in the store, only their totals go
+            for (int i = 0; i < this.children.size(); i++) {
+                this.children.valueAt(i).reset();
+            }
             this.timed = false;
         }
         this.start = 0;
         this.timingDepth = 0;
         this.added = false;
-        this.children.clear();
         this.checkEnabled();
     }
 
@@ -164,14 +260,36 @@ public abstract class AbstractTiming implements Timing {
     }
 
     public TimingData[] copyChildren() {
-        final TimingData[] copiedChildren = new TimingData[this.children.size()];
+        final int children = this.childrenWithData();
+        return this.copyChildren(new TimingDataStore(children), children);
+    }
+
+    public TimingData[] copyChildren(final TimingDataStore target) {
+        return this.copyChildren(target, this.childrenWithData());
+    }
+
+    private TimingData[] copyChildren(final TimingDataStore target, final int children) {
+        final TimingData[] copiedChildren = new TimingData[children];
         int i = 0;
-        for (final TimingData child : this.children.values()) {
-            copiedChildren[i++] = child.copy();
+        for (int position = 0; position < this.children.size(); position++) {
+            final TimingData child = this.children.valueAt(position);
+            if (child.hasData()) {
+                copiedChildren[i++] = child.copy(target);
+            }
         }
         return copiedChildren;
     }
 
+    public int childrenWithData() {
+        int count = 0;
+        for (int i = 0; i < this.children.size(); i++) {
+            if (this.children.valueAt(i).hasData()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     protected static class Instance extends AbstractTiming {
 
         protected Instance(final VanillaTimingsEngine manager, final TimingIdentifier id) {
@@ -25,38 +25,76 @@
 package org.inspirenxe.timings.core;
 
 import org.inspirenxe.timings.core.export.TimingsExport;
-import org.inspirenxe.timings.core.history.HistoryRecord;
+import org.inspirenxe.timings.core.export.TraceExport;
 import org.inspirenxe.timings.core.history.MinuteReport;
+import org.inspirenxe.timings.core.history.TickHistory;
+
+import javax.annotation.Nullable;
 
 public final class EngineTickTiming extends AbstractTiming.Instance {
+
+    // Over budget, over twice the budget and stalled
+    static final int[] TIER_MULTIPLIERS = {1, 2, 5};
+
     private final VanillaTimingsEngine manager;
     public final TimingData minuteData;
     public double avgFreeMemory = -1D;
     public double avgUsedMemory = -1D;
+    // Collection time at the start of the tick in milliseconds, and how long
+    // collections paused the last tick in nanoseconds
+    private long tickGcStart;
+    long tickGcTime;
+    // Pauses of the current minute
+    public int minuteGcTicks;
+    public long minuteGcTime;
+    public int minuteGcExplained;
+    // Flight recorder event of the current tick, reused by the next
+    @Nullable private Object jfrEvent;
+    private boolean jfrBegun;
 
     public EngineTickTiming(final VanillaTimingsEngine manager, final TimingIdentifier identifier) {
         super(manager, identifier);
         this.manager = manager;
-        this.minuteData = new TimingData(this.id);
+        // Kept apart, the minute does not end with the history interval
+        this.minuteData = new TimingData(new TimingDataStore(1), this.id, this);
     }
 
     @Override
     public AbstractTiming start() {
+        // Whichever thread ticks the engine owns the call tree, every other
+        // thread gets its own timing context
+        this.manager.mainThread = Thread.currentThread();
         if (this.manager.needsFullReset) {
             this.manager.resetTimings();
         } else if (this.manager.needsRecheckEnabled) {
             this.manager.recheckEnabled();
         }
+        this.tickGcStart = this.manager.gcMonitor.collectionTime();
+        // Recordings come and go, whether they want events is checked once a
+        // tick so timings only test a field
+        final boolean jfr = this.manager.environment.jfrEvents();
+        this.manager.jfrSections = jfr && JfrEvents.SECTION != null && JfrEvents.SECTION.enabled();
+        this.jfrBegun = jfr && JfrEvents.TICK != null && this.enabled && JfrEvents.TICK.enabled();
+        if (this.jfrBegun) {
+            if (this.jfrEvent == null) {
+                this.jfrEvent = JfrEvents.TICK.newEvent();
+            }
+            JfrEvents.begin(this.jfrEvent);
+        }
         super.start();
         return this;
     }
 
     @Override
     public void stop() {
+        final long tickStart = this.start;
         super.stop();
         if (!this.enabled) {
             return;
         }
+        final boolean commitJfrEvent = this.jfrBegun && JfrEvents.end(this.jfrEvent);
+        this.jfrBegun = false;
+        this.tickGcTime = Math.min((this.manager.gcMonitor.collectionTime() - this.tickGcStart) * 1000000L, this.data.currentTickTotal());
         if (this.manager.ticksTracker.timedTicks % 20 == 0) {
             final Runtime runtime = Runtime.getRuntime();
             double usedMemory = runtime.totalMemory() - runtime.freeMemory();
@@ -74,35 +112,79 @@ public final class EngineTickTiming extends AbstractTiming.Instance {
             }
         }
 
+        final AbstractTiming timingsTick = this.manager.timingsTick;
+        // Timed by hand rather than started, probe its CPU time the same way
+        final long startCpuTime = timingsTick.trackCpuTime ? ThreadProbe.cpuTime() : -1;
         long start = System.nanoTime();
         this.manager.tick();
         long diff = System.nanoTime() - start;
-        this.manager.currentTiming = this.manager.timingsTick;
-        this.manager.timingsTick.addDiff(diff);
+        if (startCpuTime != -1) {
+            timingsTick.data.addCpuTime(ThreadProbe.cpuTime() - startCpuTime);
+        }
+        this.manager.currentTiming = timingsTick;
+        timingsTick.addDiff(diff);
         // addDiff for TIMINGS_TICK incremented this, bring it back down to 1
         // per tick.
-        this.data.currentTickCount--;
-        this.minuteData.currentTickTotal = this.data.currentTickTotal;
-        this.minuteData.currentTickCount = 1;
-        boolean violated = this.violated();
-        this.minuteData.processTick(violated);
-        this.manager.timingsTick.processTick(violated);
-        this.processTick(violated);
+        this.data.setCurrentTick(this.data.currentTickTotal(), this.data.currentTickCount() - 1);
+        this.minuteData.setCurrentTick(this.data.currentTickTotal(), 1);
+        final long tickTime = this.data.currentTickTotal();
+        // The engine tick lags by its wall time, whatever paused it
+        final int severity = this.severity(tickTime);
+        // Over budget even without the time collections paused it
+        final int codeSeverity = this.severity(tickTime - this.tickGcTime);
+        this.minuteData.processTick(severity);
+        this.manager.tickSpecial(severity);
+        this.manager.governor.tick(tickTime, this.manager.timedSections);
+        this.manager.timedSections = 0;
+        int flags = (1 << severity) - 1;
+        if (this.tickGcTime > 0) {
+            flags |= TickHistory.GC_PAUSED;
+            this.minuteGcTicks++;
+            this.minuteGcTime += this.tickGcTime;
+            if (severity > 0 && codeSeverity == 0) {
+                flags |= TickHistory.GC_EXPLAINED;
+                this.minuteGcExplained++;
+            }
+        }
+        this.manager.tickHistory.record(tickStart, tickTime, this.manager.governor.tickOverhead(), this.tickGcTime, flags);
+        if (commitJfrEvent) {
+            JfrEvents.set(this.jfrEvent, JfrEvents.TICK_ENGINE, this.name);
+            JfrEvents.set(this.jfrEvent, JfrEvents.TICK_OVERRUN, severity > 0);
+            JfrEvents.set(this.jfrEvent, JfrEvents.TICK_SEVERITY, severity);
+            JfrEvents.set(this.jfrEvent, JfrEvents.TICK_GC_PAUSE, this.tickGcTime);
+            JfrEvents.set(this.jfrEvent, JfrEvents.TICK_GC_EXPLAINED, (flags & TickHistory.GC_EXPLAINED) != 0);
+            JfrEvents.commit(this.jfrEvent);
+        }
 
         if (this.manager.ticksTracker.timedTicks % 1200 == 0) {
-            this.manager.timingsReportsPerMinute.add(new MinuteReport(this.manager));
+            this.manager.timingsReportsPerMinute.add(new MinuteReport(this.manager, this.manager.minuteStore()));
             this.manager.ticksTracker.resetTicks(false);
             this.minuteData.reset();
+            this.minuteGcTicks = 0;
+            this.minuteGcTime = 0;
+            this.minuteGcExplained = 0;
         }
         if (this.manager.ticksTracker.timedTicks % this.manager.environment.historyInterval() == 0) {
-            this.manager.historicalReports.add(new HistoryRecord(this.manager));
-            this.manager.resetTimings();
+            this.manager.archiveHistory();
         }
 
         TimingsExport.report(this.manager);
+        TraceExport.trace(this.manager);
     }
 
-    boolean violated() {
-        return this.data.currentTickTotal > 50000000;
+    /**
+     * Gets how many violation tiers a tick time goes over, the budget of this
+     * engine times {@link #TIER_MULTIPLIERS}.
+     *
+     * @param total The tick time in nanoseconds
+     * @return The severity, 0 if it stayed within budget
+     */
+    int severity(final long total) {
+        final long budget = this.manager.environment.tickBudget(this.name);
+        int severity = 0;
+        while (severity < TimingDataStore.VIOLATION_TIERS && total > budget * EngineTickTiming.TIER_MULTIPLIERS[severity]) {
+            severity++;
+        }
+        return severity;
     }
 }
\ No newline at end of file
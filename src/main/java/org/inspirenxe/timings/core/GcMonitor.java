@@ -0,0 +1,177 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Watches the garbage collectors of the JVM, to tell ticks slowed down by a
+ * stop the world pause from ticks slowed down by code.
+ * <p>
+ * The collection time of the collectors is read at the start and the end of
+ * every tick, so the tick a pause happened in is known as soon as it ends.
+ * Collection notifications additionally keep the last pauses, with their
+ * collector and cause, for reports. Collectors reporting concurrent cycles
+ * are left out, their time is mostly spent next to the server thread.
+ */
+public final class GcMonitor implements NotificationListener {
+
+    private final List<GarbageCollectorMXBean> collectors = new ArrayList<>();
+    private final long jvmStartTime;
+    private final long[] times;
+    private final long[] durations;
+    private final String[] names;
+    private final String[] causes;
+    private long pauses;
+
+    /**
+     * Creates a monitor listening to every pausing collector.
+     *
+     * @param capacity The amount of last pauses to keep
+     */
+    public GcMonitor(final int capacity) {
+        this.jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+        this.times = new long[capacity];
+        this.durations = new long[capacity];
+        this.names = new String[capacity];
+        this.causes = new String[capacity];
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!GcMonitor.pauses(collector.getName())) {
+                continue;
+            }
+            this.collectors.add(collector);
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+            }
+        }
+    }
+
+    /**
+     * Stops listening to the collectors. Pauses kept so far stay readable.
+     */
+    public void close() {
+        for (final GarbageCollectorMXBean collector : this.collectors) {
+            if (collector instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) collector).removeNotificationListener(this);
+                } catch (final ListenerNotFoundException ignored) {
+                }
+            }
+        }
+    }
+
+    // G1 Concurrent GC, ConcurrentMarkSweep, ZGC Cycles, Shenandoah Cycles
+    private static boolean pauses(final String collector) {
+        return !collector.contains("Concurrent") && !collector.endsWith("Cycles");
+    }
+
+    /**
+     * Gets the time every pausing collector spent collecting so far.
+     *
+     * @return The time in milliseconds
+     */
+    public long collectionTime() {
+        long time = 0;
+        for (int i = 0; i < this.collectors.size(); i++) {
+            time += Math.max(0, this.collectors.get(i).getCollectionTime());
+        }
+        return time;
+    }
+
+    @Override
+    public void handleNotification(final Notification notification, final Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        final GcInfo gcInfo = info.getGcInfo();
+        synchronized (this) {
+            final int position = (int) (this.pauses % this.times.length);
+            this.times[position] = this.jvmStartTime + gcInfo.getStartTime();
+            this.durations[position] = gcInfo.getDuration();
+            this.names[position] = info.getGcName();
+            this.causes[position] = info.getGcCause();
+            this.pauses++;
+        }
+    }
+
+    /**
+     * Gets the amount of pauses currently kept, indexed from the oldest one,
+     * 0, to the newest one.
+     *
+     * @return The size
+     */
+    public synchronized int size() {
+        return (int) Math.min(this.pauses, this.times.length);
+    }
+
+    /**
+     * Gets when a pause started.
+     *
+     * @param pause The pause
+     * @return The time in milliseconds since the epoch
+     */
+    public synchronized long time(final int pause) {
+        return this.times[this.position(pause)];
+    }
+
+    /**
+     * Gets how long a pause took.
+     *
+     * @param pause The pause
+     * @return The duration in milliseconds
+     */
+    public synchronized long duration(final int pause) {
+        return this.durations[this.position(pause)];
+    }
+
+    public synchronized String collector(final int pause) {
+        return this.names[this.position(pause)];
+    }
+
+    public synchronized String cause(final int pause) {
+        return this.causes[this.position(pause)];
+    }
+
+    private int position(final int pause) {
+        final int size = this.size();
+        if (pause < 0 || pause >= size) {
+            throw new IndexOutOfBoundsException("Pause " + pause + " is not kept, size " + size);
+        }
+        return (int) ((this.pauses - size + pause) % this.times.length);
+    }
+}
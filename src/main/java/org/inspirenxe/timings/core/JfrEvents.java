@@ -0,0 +1,237 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Emits timings as Java Flight Recorder events, where the JVM supports them,
+ * so they line up with the allocation, GC, lock and I/O events of the same
+ * recording.
+ * <p>
+ * Sponge targets Java 8, which has no JFR API to compile against, so event
+ * types are declared at runtime through {@code jdk.jfr.EventFactory}, found
+ * on Java 8u262 and later. Events are begun, ended and committed like any
+ * other event, and JFR settings decide whether a type is enabled and which
+ * threshold it has. Every timing reuses one event, begun on its outermost
+ * clocked invocation.
+ */
+final class JfrEvents {
+
+    private static final String CATEGORY = "Timings";
+
+    @Nullable private static final MethodHandle NEW_EVENT;
+    @Nullable private static final MethodHandle IS_ENABLED;
+    @Nullable private static final MethodHandle BEGIN;
+    @Nullable private static final MethodHandle END;
+    @Nullable private static final MethodHandle SHOULD_COMMIT;
+    @Nullable private static final MethodHandle SET;
+    @Nullable private static final MethodHandle COMMIT;
+
+    static {
+        MethodHandle newEvent = null;
+        MethodHandle isEnabled = null;
+        MethodHandle begin = null;
+        MethodHandle end = null;
+        MethodHandle shouldCommit = null;
+        MethodHandle set = null;
+        MethodHandle commit = null;
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+            final Class<?> event = Class.forName("jdk.jfr.Event");
+            final Class<?> type = Class.forName("jdk.jfr.EventType");
+            final MethodType eventVoid = MethodType.methodType(void.class, Object.class);
+            newEvent = lookup.findVirtual(factory, "newEvent", MethodType.methodType(event)).asType(MethodType.methodType(Object.class, Object.class));
+            isEnabled = lookup.findVirtual(type, "isEnabled", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            begin = lookup.findVirtual(event, "begin", MethodType.methodType(void.class)).asType(eventVoid);
+            end = lookup.findVirtual(event, "end", MethodType.methodType(void.class)).asType(eventVoid);
+            shouldCommit = lookup.findVirtual(event, "shouldCommit", MethodType.methodType(boolean.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class));
+            set = lookup.findVirtual(event, "set", MethodType.methodType(void.class, int.class, Object.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+            commit = lookup.findVirtual(event, "commit", MethodType.methodType(void.class)).asType(eventVoid);
+        } catch (final ReflectiveOperationException | LinkageError | SecurityException ignored) {
+            // No JFR, or a JVM from before it was open sourced, events are
+            // only ever created if every handle was found
+            newEvent = null;
+        }
+        NEW_EVENT = newEvent;
+        IS_ENABLED = isEnabled;
+        BEGIN = begin;
+        END = end;
+        SHOULD_COMMIT = shouldCommit;
+        SET = set;
+        COMMIT = commit;
+    }
+
+    /**
+     * A handler section that took longer than the threshold of the event,
+     * 1 ms unless the recording sets another.
+     */
+    @Nullable static final JfrEvents SECTION = JfrEvents.create("org.inspirenxe.timings.Section", "Timings Section",
+            "A section of a handler timed on the server thread", "1 ms",
+            new String[] {"handler", "group"}, new String[] {"Handler", "Group"}, new Class<?>[] {String.class, String.class});
+    static final int SECTION_HANDLER = 0;
+    static final int SECTION_GROUP = 1;
+
+    /**
+     * A tick of an engine.
+     */
+    @Nullable static final JfrEvents TICK = JfrEvents.create("org.inspirenxe.timings.Tick", "Timings Engine Tick",
+            "A tick of an engine and whether it went over its budget", "0 ns",
+            new String[] {"engine", "overrun", "severity", "gcPause", "gcExplained"},
+            new String[] {"Engine", "Overrun", "Severity", "GC Pause", "Explained by GC"},
+            new Class<?>[] {String.class, boolean.class, int.class, long.class, boolean.class});
+    static final int TICK_ENGINE = 0;
+    static final int TICK_OVERRUN = 1;
+    static final int TICK_SEVERITY = 2;
+    static final int TICK_GC_PAUSE = 3;
+    static final int TICK_GC_EXPLAINED = 4;
+
+    private final Object factory;
+    private final Object type;
+
+    private JfrEvents(final Object factory, final Object type) {
+        this.factory = factory;
+        this.type = type;
+    }
+
+    /**
+     * Gets whether a running recording enables this event. Cheap enough to
+     * check every tick.
+     *
+     * @return Whether the event is enabled
+     */
+    boolean enabled() {
+        try {
+            return (boolean) JfrEvents.IS_ENABLED.invokeExact(this.type);
+        } catch (final Throwable t) {
+            throw JfrEvents.rethrow(t);
+        }
+    }
+
+    Object newEvent() {
+        try {
+            return (Object) JfrEvents.NEW_EVENT.invokeExact(this.factory);
+        } catch (final Throwable t) {
+            throw JfrEvents.rethrow(t);
+        }
+    }
+
+    static void begin(final Object event) {
+        try {
+            JfrEvents.BEGIN.invokeExact(event);
+        } catch (final Throwable t) {
+            throw JfrEvents.rethrow(t);
+        }
+    }
+
+    /**
+     * Ends an event.
+     *
+     * @param event The event
+     * @return Whether it passes the settings of the recording and should be
+     *     committed
+     */
+    static boolean end(final Object event) {
+        try {
+            JfrEvents.END.invokeExact(event);
+            return (boolean) JfrEvents.SHOULD_COMMIT.invokeExact(event);
+        } catch (final Throwable t) {
+            throw JfrEvents.rethrow(t);
+        }
+    }
+
+    static void set(final Object event, final int field, final Object value) {
+        try {
+            JfrEvents.SET.invokeExact(event, field, value);
+        } catch (final Throwable t) {
+            throw JfrEvents.rethrow(t);
+        }
+    }
+
+    static void commit(final Object event) {
+        try {
+            JfrEvents.COMMIT.invokeExact(event);
+        } catch (final Throwable t) {
+            throw JfrEvents.rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(final Throwable t) {
+        return t instanceof RuntimeException ? (RuntimeException) t : new IllegalStateException("Failed to emit a JFR event", t);
+    }
+
+    @Nullable
+    private static JfrEvents create(final String name, final String label, final String description, final String threshold,
+            final String[] fields, final String[] labels, final Class<?>[] types) {
+        if (JfrEvents.NEW_EVENT == null) {
+            return null;
+        }
+        try {
+            final Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+            final Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            final Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+            final List<Object> annotations = new ArrayList<>();
+            annotations.add(JfrEvents.annotation(annotationElement, "jdk.jfr.Name", name));
+            annotations.add(JfrEvents.annotation(annotationElement, "jdk.jfr.Label", label));
+            annotations.add(JfrEvents.annotation(annotationElement, "jdk.jfr.Description", description));
+            annotations.add(JfrEvents.annotation(annotationElement, "jdk.jfr.Category", new String[] {JfrEvents.CATEGORY}));
+            annotations.add(JfrEvents.annotation(annotationElement, "jdk.jfr.Threshold", threshold));
+            // Where a timing stops says nothing the timing does not
+            annotations.add(JfrEvents.annotation(annotationElement, "jdk.jfr.StackTrace", false));
+            final List<Object> descriptors = new ArrayList<>();
+            for (int i = 0; i < fields.length; i++) {
+                final List<Object> fieldAnnotations = new ArrayList<>();
+                fieldAnnotations.add(JfrEvents.annotation(annotationElement, "jdk.jfr.Label", labels[i]));
+                if (types[i] == long.class) {
+                    fieldAnnotations.add(JfrEvents.annotation(annotationElement, "jdk.jfr.Timespan", "NANOSECONDS"));
+                }
+                descriptors.add(valueDescriptor.getConstructor(Class.class, String.class, List.class)
+                        .newInstance(types[i], fields[i], fieldAnnotations));
+            }
+            final Object eventFactory = factory.getMethod("create", List.class, List.class).invoke(null, annotations, descriptors);
+            return new JfrEvents(eventFactory, factory.getMethod("getEventType").invoke(eventFactory));
+        } catch (final ReflectiveOperationException | LinkageError | RuntimeException ignored) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object annotation(final Class<?> annotationElement, final String annotation, final Object value)
+            throws ReflectiveOperationException {
+        final Class<? extends Annotation> type = (Class<? extends Annotation>) Class.forName(annotation);
+        return annotationElement.getConstructor(Class.class, Object.class).newInstance(type, value);
+    }
+}
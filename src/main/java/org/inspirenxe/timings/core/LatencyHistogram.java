@@ -0,0 +1,162 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+/**
+ * A fixed size histogram of invocation times.
+ * <p>
+ * Buckets are logarithmic with four buckets per power of two microseconds,
+ * so every recorded time is known within 25% from one microsecond to about
+ * half a minute, in a few hundred bytes. Histograms of the same handler
+ * merge by adding up their buckets.
+ */
+public final class LatencyHistogram {
+
+    public static final int BUCKETS = 100;
+    private static final int UNIT_SHIFT = 10;
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << LatencyHistogram.SUB_BUCKET_BITS;
+
+    private final int[] buckets;
+    private long max;
+
+    public LatencyHistogram() {
+        this(new int[LatencyHistogram.BUCKETS], 0);
+    }
+
+    LatencyHistogram(final int[] buckets, final long max) {
+        this.buckets = buckets;
+        this.max = max;
+    }
+
+    /**
+     * Gets the amount of invocations recorded.
+     *
+     * @return The count
+     */
+    public long count() {
+        long count = 0;
+        for (final int bucket : this.buckets) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the amount of invocations recorded in a bucket.
+     *
+     * @param bucket The bucket, below {@link #BUCKETS}
+     * @return The count
+     */
+    public int count(final int bucket) {
+        return this.buckets[bucket];
+    }
+
+    /**
+     * Gets the shortest invocation recorded.
+     *
+     * @return The lower bound of the bucket holding it in nanoseconds, 0 if
+     *     nothing was recorded
+     */
+    public long min() {
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            if (this.buckets[bucket] != 0) {
+                return LatencyHistogram.lowerBound(bucket);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the longest invocation recorded.
+     *
+     * @return The time in nanoseconds
+     */
+    public long max() {
+        return this.max;
+    }
+
+    /**
+     * Gets the time under which the given share of invocations took.
+     *
+     * @param percentile Percentile between 0 and 100
+     * @return The upper bound of the bucket holding it in nanoseconds, 0 if
+     *     nothing was recorded
+     */
+    public long percentile(final double percentile) {
+        final long count = this.count();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * Math.min(100D, Math.max(0D, percentile)) / 100D));
+        long seen = 0;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            seen += this.buckets[bucket];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.lowerBound(bucket + 1), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    /**
+     * Adds every invocation of another histogram to this one.
+     *
+     * @param other The histogram to merge
+     * @return This histogram
+     */
+    public LatencyHistogram merge(final LatencyHistogram other) {
+        LatencyHistogram.merge(this.buckets, other.buckets);
+        this.max = Math.max(this.max, other.max);
+        return this;
+    }
+
+    static void merge(final int[] buckets, final int[] other) {
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            buckets[bucket] += other[bucket];
+        }
+    }
+
+    static int bucket(final long nanos) {
+        final long units = nanos >>> LatencyHistogram.UNIT_SHIFT;
+        if (units < LatencyHistogram.SUB_BUCKETS) {
+            return (int) units;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(units);
+        final int bucket = ((exponent - LatencyHistogram.SUB_BUCKET_BITS + 1) << LatencyHistogram.SUB_BUCKET_BITS)
+                + (int) ((units >>> (exponent - LatencyHistogram.SUB_BUCKET_BITS)) & (LatencyHistogram.SUB_BUCKETS - 1));
+        return Math.min(bucket, LatencyHistogram.BUCKETS - 1);
+    }
+
+    static long lowerBound(final int bucket) {
+        if (bucket < LatencyHistogram.SUB_BUCKETS) {
+            return (long) bucket << LatencyHistogram.UNIT_SHIFT;
+        }
+        final int exponent = (bucket >>> LatencyHistogram.SUB_BUCKET_BITS) + LatencyHistogram.SUB_BUCKET_BITS - 1;
+        final long units = (long) (LatencyHistogram.SUB_BUCKETS | (bucket & (LatencyHistogram.SUB_BUCKETS - 1)))
+                << (exponent - LatencyHistogram.SUB_BUCKET_BITS);
+        return units << LatencyHistogram.UNIT_SHIFT;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the overhead of timing the server thread under a budget.
+ * <p>
+ * The overhead of a tick is estimated as the sections timed on the server
+ * thread during it times the calibrated cost of timing one. Whenever it goes
+ * over {@link StandardTimingsEnvironment#overheadBudget()} percent of the
+ * tick, the noisiest verbose timing is demoted, first to sampled and then to
+ * disabled, one step per evaluation. Once the overhead stayed under half the
+ * budget for a while, the last demotion is undone.
+ */
+public final class OverheadGovernor {
+
+    static final int NOT_DEMOTED = 0;
+    static final int SAMPLED = 1;
+    static final int DISABLED = 2;
+    static final int DEMOTED_SAMPLING_RATE = 16;
+
+    private static final int EVALUATION_INTERVAL = 20;
+    private static final int CALIBRATION_INTERVAL = 20 * 60 * 5;
+    // Evaluations the overhead has to stay low for before promoting
+    private static final int PROMOTION_DELAY = 15;
+
+    private final VanillaTimingsEngine manager;
+    // A timing is on here once per demotion step, the last step on top
+    private final ArrayDeque<AbstractTiming> demotions = new ArrayDeque<>();
+    private long timingCost = -1;
+    private int ticksSinceCalibration;
+    private long tickOverhead;
+    private long windowOverhead;
+    private long windowTickTime;
+    private int windowTicks;
+    private double overhead;
+    private int calmEvaluations;
+
+    OverheadGovernor(final VanillaTimingsEngine manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Benchmarks the cost of timing a section on the server thread.
+     * Must be called from the server thread.
+     *
+     * @return The cost in nanoseconds
+     */
+    public long calibrate() {
+        // Benchmark the users System.nanotime() for cost basis
+        int passes = 200;
+        final AbstractTiming SAMPLER1 = this.manager.of("Timings Sampler 1");
+        final AbstractTiming SAMPLER2 = this.manager.of("Timings Sampler 2");
+        final AbstractTiming SAMPLER3 = this.manager.of("Timings Sampler 3");
+        final AbstractTiming SAMPLER4 = this.manager.of("Timings Sampler 4");
+        final AbstractTiming SAMPLER5 = this.manager.of("Timings Sampler 5");
+        final AbstractTiming SAMPLER6 = this.manager.of("Timings Sampler 6");
+
+        final AbstractTiming current = this.manager.currentTiming;
+        final long start = System.nanoTime();
+        for (int i = 0; i < passes; i++) {
+            SAMPLER1.start();
+            SAMPLER2.start();
+            SAMPLER3.start();
+            SAMPLER3.start();
+            SAMPLER4.start();
+            SAMPLER5.start();
+            SAMPLER6.start();
+            SAMPLER6.start();
+            SAMPLER5.start();
+            SAMPLER4.start();
+            SAMPLER2.start();
+            SAMPLER1.start();
+        }
+        final long timingsCost = (System.nanoTime() - start) / passes / 6;
+        SAMPLER1.reset(true);
+        SAMPLER2.reset(true);
+        SAMPLER3.reset(true);
+        SAMPLER4.reset(true);
+        SAMPLER5.reset(true);
+        SAMPLER6.reset(true);
+        // The samplers never stop, so they would otherwise parent whatever
+        // starts next
+        this.manager.currentTiming = current;
+        // Anything interfering with the benchmark only ever adds to it
+        this.timingCost = this.timingCost == -1 ? timingsCost : Math.min(this.timingCost, timingsCost);
+        this.ticksSinceCalibration = 0;
+        return timingsCost;
+    }
+
+    /**
+     * Gets the lowest cost of timing a section measured so far.
+     *
+     * @return The cost in nanoseconds, -1 if never calibrated
+     */
+    public long timingCost() {
+        return this.timingCost;
+    }
+
+    /**
+     * Gets the estimated overhead of timing the last tick.
+     *
+     * @return The overhead in nanoseconds
+     */
+    public long tickOverhead() {
+        return this.tickOverhead;
+    }
+
+    /**
+     * Gets the estimated overhead as of the last evaluation.
+     *
+     * @return The overhead in percent of the tick time
+     */
+    public double overhead() {
+        return this.overhead;
+    }
+
+    void tick(final long tickTime, final int timedSections) {
+        if (this.timingCost == -1 || ++this.ticksSinceCalibration >= OverheadGovernor.CALIBRATION_INTERVAL) {
+            this.calibrate();
+        }
+        this.tickOverhead = timedSections * this.timingCost;
+        this.windowOverhead += this.tickOverhead;
+        this.windowTickTime += tickTime;
+        if (++this.windowTicks < OverheadGovernor.EVALUATION_INTERVAL) {
+            return;
+        }
+
+        this.overhead = this.windowTickTime == 0 ? 0 : this.windowOverhead * 100D / this.windowTickTime;
+        this.windowOverhead = 0;
+        this.windowTickTime = 0;
+        this.windowTicks = 0;
+
+        final double budget = this.manager.environment.overheadBudget();
+        if (budget > 0 && this.overhead < budget / 2) {
+            this.calmEvaluations++;
+        } else {
+            this.calmEvaluations = 0;
+        }
+        if (budget <= 0) {
+            if (!this.demotions.isEmpty()) {
+                while (!this.demotions.isEmpty()) {
+                    this.promote();
+                }
+                this.manager.logger.info("Timings overhead budget disabled, restored all demoted timings");
+            }
+        } else if (this.overhead > budget) {
+            final boolean first = this.demotions.isEmpty();
+            if (this.demote() && first) {
+                this.manager.logger.info("Timings overhead of {}% is over the budget of {}%, demoting verbose timings",
+                        String.format("%.2f", this.overhead), budget);
+            }
+        } else if (this.calmEvaluations >= OverheadGovernor.PROMOTION_DELAY && !this.demotions.isEmpty()) {
+            this.calmEvaluations = 0;
+            this.promote();
+            if (this.demotions.isEmpty()) {
+                this.manager.logger.info("Timings overhead back under budget, restored all demoted timings");
+            }
+        }
+    }
+
+    private boolean demote() {
+        AbstractTiming noisiest = this.noisiest(OverheadGovernor.NOT_DEMOTED);
+        if (noisiest == null) {
+            noisiest = this.noisiest(OverheadGovernor.SAMPLED);
+        }
+        if (noisiest == null) {
+            return false;
+        }
+        noisiest.demotion++;
+        noisiest.checkEnabled();
+        this.demotions.push(noisiest);
+        return true;
+    }
+
+    private void promote() {
+        final AbstractTiming timing = this.demotions.pop();
+        timing.demotion--;
+        timing.checkEnabled();
+    }
+
+    private AbstractTiming noisiest(final int demotion) {
+        // Only timings that did something this interval can be noisy
+        AbstractTiming noisiest = null;
+        for (final AbstractTiming timing : this.manager.timings) {
+            if (timing.verbose && timing.enabled && timing.demotion == demotion
+                    && (noisiest == null || timing.data.count() > noisiest.data.count())) {
+                noisiest = timing;
+            }
+        }
+        return noisiest;
+    }
+}
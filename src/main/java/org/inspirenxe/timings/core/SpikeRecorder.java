@@ -0,0 +1,195 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the timing tree of the worst ticks.
+ * <p>
+ * A spike is the current tick of every handler and child added to in a tick
+ * that went over {@link StandardTimingsEnvironment#spikeThreshold()}, copied
+ * right before the tick is folded. Spikes are kept in preallocated rows, a
+ * new one replacing the shortest kept once full, and ticks shorter than
+ * every kept spike are not copied at all. Rows of handlers come first, so
+ * only children get dropped when a spike has more rows than fit.
+ * <p>
+ * Only the thread ticking the engine may touch a recorder.
+ */
+public final class SpikeRecorder {
+
+    private final long[] durations;
+    private final long[] times;
+    private final int[] rows;
+    private final int[] totalRows;
+    private final int[][] owners;
+    private final int[][] ids;
+    private final long[][] totals;
+    private final int[][] counts;
+    private int size;
+
+    SpikeRecorder(final int capacity, final int maxRows) {
+        final int spikes = Math.max(1, capacity);
+        final int rows = Math.max(1, maxRows);
+        this.durations = new long[spikes];
+        this.times = new long[spikes];
+        this.rows = new int[spikes];
+        this.totalRows = new int[spikes];
+        this.owners = new int[spikes][rows];
+        this.ids = new int[spikes][rows];
+        this.totals = new long[spikes][rows];
+        this.counts = new int[spikes][rows];
+    }
+
+    private SpikeRecorder(final SpikeRecorder source) {
+        this.size = source.size;
+        this.durations = Arrays.copyOf(source.durations, this.size);
+        this.times = Arrays.copyOf(source.times, this.size);
+        this.rows = Arrays.copyOf(source.rows, this.size);
+        this.totalRows = Arrays.copyOf(source.totalRows, this.size);
+        this.owners = new int[this.size][];
+        this.ids = new int[this.size][];
+        this.totals = new long[this.size][];
+        this.counts = new int[this.size][];
+        for (int spike = 0; spike < this.size; spike++) {
+            this.owners[spike] = Arrays.copyOf(source.owners[spike], this.rows[spike]);
+            this.ids[spike] = Arrays.copyOf(source.ids[spike], this.rows[spike]);
+            this.totals[spike] = Arrays.copyOf(source.totals[spike], this.rows[spike]);
+            this.counts[spike] = Arrays.copyOf(source.counts[spike], this.rows[spike]);
+        }
+    }
+
+    /**
+     * Copies the spikes kept, to read them on another thread. The copy is
+     * read only.
+     *
+     * @return The copy
+     */
+    public SpikeRecorder copy() {
+        return new SpikeRecorder(this);
+    }
+
+    boolean wants(final long duration) {
+        return this.size < this.durations.length || duration > this.durations[this.shortest()];
+    }
+
+    void capture(final TimingDataStore store, final VanillaTimingsEngine engine, final long duration) {
+        final int spike = this.size < this.durations.length ? this.size++ : this.shortest();
+        final int handlers = store.copyTick(engine, true, this.owners[spike], this.ids[spike], this.totals[spike], this.counts[spike], 0);
+        final int rows = store.copyTick(engine, false, this.owners[spike], this.ids[spike], this.totals[spike], this.counts[spike], handlers);
+        this.rows[spike] = Math.min(rows, this.ids[spike].length);
+        this.totalRows[spike] = rows;
+        this.durations[spike] = duration;
+        this.times[spike] = System.currentTimeMillis();
+    }
+
+    private int shortest() {
+        int shortest = 0;
+        for (int spike = 1; spike < this.size; spike++) {
+            if (this.durations[spike] < this.durations[shortest]) {
+                shortest = spike;
+            }
+        }
+        return shortest;
+    }
+
+    void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Gets the amount of spikes kept.
+     *
+     * @return The size
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the spikes kept, longest first.
+     *
+     * @return The spikes
+     */
+    public int[] worst() {
+        final Integer[] order = new Integer[this.size];
+        for (int spike = 0; spike < this.size; spike++) {
+            order[spike] = spike;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(this.durations[b], this.durations[a]));
+        final int[] worst = new int[this.size];
+        for (int i = 0; i < this.size; i++) {
+            worst[i] = order[i];
+        }
+        return worst;
+    }
+
+    public long duration(final int spike) {
+        return this.durations[spike];
+    }
+
+    public long time(final int spike) {
+        return this.times[spike];
+    }
+
+    public int rows(final int spike) {
+        return this.rows[spike];
+    }
+
+    /**
+     * Gets the amount of rows the spike had, including the ones that did not
+     * fit.
+     *
+     * @param spike The spike
+     * @return The rows
+     */
+    public int totalRows(final int spike) {
+        return this.totalRows[spike];
+    }
+
+    /**
+     * Gets the id of the timing a row belongs to. Rows of handlers have the
+     * same owner and id, the others are children of their owner.
+     *
+     * @param spike The spike
+     * @param row The row
+     * @return The id
+     */
+    public int owner(final int spike, final int row) {
+        return this.owners[spike][row];
+    }
+
+    public int id(final int spike, final int row) {
+        return this.ids[spike][row];
+    }
+
+    public long total(final int spike, final int row) {
+        return this.totals[spike][row];
+    }
+
+    public int count(final int spike, final int row) {
+        return this.counts[spike][row];
+    }
+}
@@ -26,14 +26,48 @@ package org.inspirenxe.timings.core;
 
 import co.aikar.timings.TimingsEnvironment;
 
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
 public final class StandardTimingsEnvironment implements TimingsEnvironment {
 
     private boolean enabled = true;
     private boolean verboseEnabled = true;
     private boolean privacyMode = false;
 
+    private int verboseSamplingRate = 1;
+    private final Map<String, Integer> samplingRates = new ConcurrentHashMap<>();
+    private final Set<String> allocationGroups = ConcurrentHashMap.newKeySet();
+    private final Set<String> cpuTimeGroups = ConcurrentHashMap.newKeySet();
+
+    private double overheadBudget = 5D;
+    private long defaultTickBudget = 50000000L;
+
+    private final Map<String, Long> tickBudgets = new ConcurrentHashMap<>();
+
     private int historyInterval = 60;
     private int historyLength = 60;
+    private int tickHistoryLength = 20 * 60 * 10;
+    private int spikeThreshold = 50;
+    private int spikeCapacity = 10;
+
+    @Nullable private Path historyDirectory;
+    private int historyDiskLimit = 512;
+    private int historyRetention = 7;
+
+    private String reportUrl = "https://timings.aikar.co/post";
+    @Nullable private Path reportDirectory;
+    private int reportsKept = 20;
+
+    private String metricsHost = "127.0.0.1";
+    private int metricsPort = -1;
+    private int metricsHandlers = 20;
+
+    private boolean jfrEvents = false;
 
     @Override
     public boolean enabled() {
@@ -57,6 +91,118 @@ public final class StandardTimingsEnvironment implements TimingsEnvironment {
         return this.privacyMode;
     }
 
+    /**
+     * Gets how many invocations of a timing on the server thread share one
+     * clocked invocation. Every invocation is still counted, and the clocked
+     * ones stand in for the others in the totals.
+     *
+     * @param group The group of the timing
+     * @param verbose Whether the timing is verbose
+     * @return The sampling rate, 1 clocking every invocation
+     */
+    public int samplingRate(final String group, final boolean verbose) {
+        final Integer rate = this.samplingRates.get(group);
+        if (rate != null) {
+            return rate;
+        }
+        return verbose ? this.verboseSamplingRate : 1;
+    }
+
+    public void setSamplingRate(final String group, final int rate) {
+        if (rate <= 1) {
+            this.samplingRates.remove(group);
+        } else {
+            this.samplingRates.put(group, rate);
+        }
+    }
+
+    public int verboseSamplingRate() {
+        return this.verboseSamplingRate;
+    }
+
+    public void setVerboseSamplingRate(final int verboseSamplingRate) {
+        this.verboseSamplingRate = Math.max(1, verboseSamplingRate);
+    }
+
+    /**
+     * Gets whether the bytes the server thread allocates are tracked for the
+     * timings of a group. Reading the allocation counter adds to the cost of
+     * every clocked invocation, so this is off by default.
+     *
+     * @param group The group
+     * @return Whether allocations are tracked
+     */
+    public boolean trackAllocations(final String group) {
+        return this.allocationGroups.contains(group);
+    }
+
+    public void setTrackAllocations(final String group, final boolean track) {
+        if (track) {
+            this.allocationGroups.add(group);
+        } else {
+            this.allocationGroups.remove(group);
+        }
+    }
+
+    /**
+     * Gets whether the CPU time of the server thread is tracked for the
+     * timings of a group, to tell time spent computing from time spent
+     * blocked. Reading the CPU time may take microseconds on virtualized
+     * hosts, so this is off by default. The engine tick always tracks it.
+     *
+     * @param group The group
+     * @return Whether CPU time is tracked
+     */
+    public boolean trackCpuTime(final String group) {
+        return this.cpuTimeGroups.contains(group);
+    }
+
+    public void setTrackCpuTime(final String group, final boolean track) {
+        if (track) {
+            this.cpuTimeGroups.add(group);
+        } else {
+            this.cpuTimeGroups.remove(group);
+        }
+    }
+
+    /**
+     * Gets how long a tick of an engine may take before it counts as lag.
+     * Ticks over a multiple of it count in the higher violation tiers.
+     *
+     * @param engine The name of the tick timing of the engine
+     * @return The budget in nanoseconds
+     */
+    public long tickBudget(final String engine) {
+        final Long budget = this.tickBudgets.get(engine);
+        return budget == null ? this.defaultTickBudget : budget;
+    }
+
+    public void setTickBudget(final String engine, final long budget) {
+        this.tickBudgets.put(engine, budget);
+    }
+
+    public long defaultTickBudget() {
+        return this.defaultTickBudget;
+    }
+
+    public void setDefaultTickBudget(final long defaultTickBudget) {
+        this.defaultTickBudget = defaultTickBudget;
+    }
+
+    /**
+     * Gets the share of the tick time timings may spend timing the server
+     * thread before verbose timings get demoted.
+     *
+     * @return The budget in percent, 0 or less to never demote
+     */
+    public double overheadBudget() {
+        return this.overheadBudget;
+    }
+
+    public void setOverheadBudget(final double overheadBudget) {
+        this.overheadBudget = overheadBudget;
+    }
+
     @Override
     public int historyInterval() {
         return this.historyInterval;
@@ -66,4 +212,173 @@ public final class StandardTimingsEnvironment implements TimingsEnvironment {
     public int historyLength() {
         return this.historyLength;
     }
+
+    /**
+     * Gets how many of the last ticks are kept in detail. Only read once,
+     * when the engine is created.
+     *
+     * @return The amount of ticks
+     */
+    public int tickHistoryLength() {
+        return this.tickHistoryLength;
+    }
+
+    /**
+     * Gets how long a tick has to take for its timing tree to be kept as a
+     * spike.
+     *
+     * @return The threshold in milliseconds
+     */
+    public int spikeThreshold() {
+        return this.spikeThreshold;
+    }
+
+    public void setSpikeThreshold(final int spikeThreshold) {
+        this.spikeThreshold = spikeThreshold;
+    }
+
+    /**
+     * Gets how many of the worst spikes are kept. Only read once, when the
+     * engine is created.
+     *
+     * @return The amount of spikes
+     */
+    public int spikeCapacity() {
+        return this.spikeCapacity;
+    }
+
+    /**
+     * Gets the directory history is kept in on disk, null to only keep it in
+     * memory. Only read once, when the engine is created.
+     *
+     * @return The directory
+     */
+    @Nullable
+    public Path historyDirectory() {
+        return this.historyDirectory;
+    }
+
+    public void setHistoryDirectory(@Nullable final Path historyDirectory) {
+        this.historyDirectory = historyDirectory;
+    }
+
+    /**
+     * Gets how much disk space the history of an engine may take. Only read
+     * once, when the engine is created.
+     *
+     * @return The limit in megabytes
+     */
+    public int historyDiskLimit() {
+        return this.historyDiskLimit;
+    }
+
+    /**
+     * Gets how long history is kept on disk. Only read once, when the engine
+     * is created.
+     *
+     * @return The retention in days
+     */
+    public int historyRetention() {
+        return this.historyRetention;
+    }
+
+    /**
+     * Gets the URL reports are posted to, unless they are written to a file.
+     *
+     * @return The URL
+     */
+    public String reportUrl() {
+        return this.reportUrl;
+    }
+
+    public void setReportUrl(final String reportUrl) {
+        this.reportUrl = reportUrl;
+    }
+
+    /**
+     * Gets the directory reports are written to when asked for a file, null
+     * to only post them.
+     *
+     * @return The directory
+     */
+    @Nullable
+    public Path reportDirectory() {
+        return this.reportDirectory;
+    }
+
+    public void setReportDirectory(@Nullable final Path reportDirectory) {
+        this.reportDirectory = reportDirectory;
+    }
+
+    /**
+     * Gets how many reports are kept in the report directory. The oldest
+     * ones are deleted as new ones are written.
+     *
+     * @return The amount of reports
+     */
+    public int reportsKept() {
+        return this.reportsKept;
+    }
+
+    public void setReportsKept(final int reportsKept) {
+        this.reportsKept = reportsKept;
+    }
+
+    /**
+     * Gets the host the metrics endpoint binds to. Only read once, when the
+     * engine is created.
+     *
+     * @return The host
+     */
+    public String metricsHost() {
+        return this.metricsHost;
+    }
+
+    public void setMetricsHost(final String metricsHost) {
+        this.metricsHost = metricsHost;
+    }
+
+    /**
+     * Gets the port the metrics endpoint binds to. Only read once, when the
+     * server engine is created, the only engine serving metrics.
+     *
+     * @return The port, -1 to not serve metrics
+     */
+    public int metricsPort() {
+        return this.metricsPort;
+    }
+
+    public void setMetricsPort(final int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * Gets how many of the handlers that took the most time are exposed as
+     * metrics.
+     *
+     * @return The amount of handlers
+     */
+    public int metricsHandlers() {
+        return this.metricsHandlers;
+    }
+
+    public void setMetricsHandlers(final int metricsHandlers) {
+        this.metricsHandlers = metricsHandlers;
+    }
+
+    /**
+     * Gets whether handler sections and engine ticks are emitted as Java
+     * Flight Recorder events, to any recording enabling them. Sections only
+     * count once they take longer than the threshold the recording sets for
+     * them, 1 ms by default.
+     *
+     * @return Whether events are emitted
+     */
+    public boolean jfrEvents() {
+        return this.jfrEvents;
+    }
+
+    public void setJfrEvents(final boolean jfrEvents) {
+        this.jfrEvents = jfrEvents;
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads counters the JVM keeps per thread, where it supports them.
+ */
+final class ThreadProbe {
+
+    @Nullable private static final ThreadMXBean THREADS = ThreadProbe.threads();
+    static final boolean ALLOCATIONS = ThreadProbe.THREADS != null;
+    static final boolean CPU_TIME = ThreadProbe.cpuTimeSupported();
+
+    /**
+     * Gets the bytes the current thread allocated so far. Only valid if
+     * {@link #ALLOCATIONS} is true.
+     *
+     * @return The bytes
+     */
+    static long allocatedBytes() {
+        return ThreadProbe.THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Gets the time the current thread spent running on a CPU so far. Only
+     * valid if {@link #CPU_TIME} is true.
+     *
+     * @return The time in nanoseconds
+     */
+    static long cpuTime() {
+        return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+    }
+
+    private static boolean cpuTimeSupported() {
+        try {
+            final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads.isCurrentThreadCpuTimeSupported()) {
+                threads.setThreadCpuTimeEnabled(true);
+                return true;
+            }
+        } catch (final UnsupportedOperationException | SecurityException ignored) {
+        }
+        return false;
+    }
+
+    @Nullable
+    private static ThreadMXBean threads() {
+        try {
+            final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof ThreadMXBean && ((ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+                ((ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+                return (ThreadMXBean) threads;
+            }
+        } catch (final LinkageError | UnsupportedOperationException | SecurityException ignored) {
+            // Not a HotSpot based JVM
+        }
+        return null;
+    }
+
+    private ThreadProbe() {
+    }
+}
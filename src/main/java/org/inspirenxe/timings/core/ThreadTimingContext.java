@@ -0,0 +1,193 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import org.inspirenxe.timings.core.util.LoadingIntTable;
+
+import java.util.Arrays;
+
+/**
+ * Timing state of a thread other than the one ticking the engine.
+ * <p>
+ * Every thread gets its own parent chain and its own depth and start time per
+ * timing, so timing async work never touches the call tree of the server
+ * thread. Time is accumulated here and merged into the engine by the server
+ * thread at the end of each tick.
+ */
+final class ThreadTimingContext {
+
+    final Thread thread;
+    private final LoadingIntTable<Frame> frames = new LoadingIntTable<>(id -> new Frame());
+    private AbstractTiming current;
+    // Frames accumulated into since the last merge, guarded by this
+    private Frame[] touched = new Frame[16];
+    private int touchedSize;
+
+    ThreadTimingContext(final Thread thread) {
+        this.thread = thread;
+    }
+
+    void start(final AbstractTiming timing) {
+        final Frame frame = this.frame(timing);
+        if (++frame.depth == 1) {
+            frame.start = System.nanoTime();
+            frame.parent = this.current;
+            this.current = timing;
+        }
+    }
+
+    void stop(final AbstractTiming timing) {
+        final Frame frame = this.frame(timing);
+        if (--frame.depth == 0 && frame.start != 0) {
+            final long diff = System.nanoTime() - frame.start;
+            frame.start = 0;
+            synchronized (this) {
+                frame.record(diff);
+                this.addDiff(frame, diff);
+            }
+        }
+    }
+
+    void abort(final AbstractTiming timing) {
+        final Frame frame = this.frames.getIfPresent(timing.id);
+        if (frame != null && frame.depth > 0) {
+            frame.start = 0;
+        }
+    }
+
+    private Frame frame(final AbstractTiming timing) {
+        final Frame frame = this.frames.get(timing.id);
+        if (frame.timing == null) {
+            frame.timing = timing;
+        }
+        return frame;
+    }
+
+    // Mirrors AbstractTiming#addDiff against this thread's parent chain
+    private void addDiff(final Frame frame, final long diff) {
+        if (this.current == frame.timing) {
+            this.current = frame.parent;
+            if (frame.parent != null) {
+                final Frame parentFrame = this.frame(frame.parent);
+                parentFrame.child(frame.timing).add(diff);
+                this.touch(parentFrame);
+            }
+        }
+        frame.add(diff);
+        this.touch(frame);
+        final AbstractTiming group = frame.timing.group;
+        if (group != null) {
+            final Frame groupFrame = this.frame(group);
+            this.addDiff(groupFrame, diff);
+            groupFrame.child(frame.timing).add(diff);
+        }
+    }
+
+    private void touch(final Frame frame) {
+        if (frame.touched) {
+            return;
+        }
+        frame.touched = true;
+        if (this.touchedSize == this.touched.length) {
+            this.touched = Arrays.copyOf(this.touched, this.touchedSize << 1);
+        }
+        this.touched[this.touchedSize++] = frame;
+    }
+
+    /**
+     * Merges everything accumulated since the last merge into the engine.
+     * Must be called from the server thread.
+     *
+     * @return Whether anything was merged
+     */
+    synchronized boolean merge() {
+        if (this.touchedSize == 0) {
+            return false;
+        }
+        for (int i = 0; i < this.touchedSize; i++) {
+            final Frame frame = this.touched[i];
+            this.touched[i] = null;
+            frame.touched = false;
+            if (frame.count != 0) {
+                frame.timing.data.add(frame.total, frame.count);
+                frame.timing.markAdded();
+                frame.count = 0;
+                frame.total = 0;
+            }
+            if (frame.maxTime != 0) {
+                frame.timing.data.record(frame.histogram, frame.maxTime);
+                Arrays.fill(frame.histogram, 0);
+                frame.maxTime = 0;
+            }
+            for (int position = 0; position < frame.children.size(); position++) {
+                final Accumulator child = frame.children.valueAt(position);
+                if (child.count != 0) {
+                    frame.timing.children.get(frame.children.keyAt(position)).add(child.total, child.count);
+                    child.count = 0;
+                    child.total = 0;
+                }
+            }
+        }
+        this.touchedSize = 0;
+        return true;
+    }
+
+    static final class Frame extends Accumulator {
+
+        AbstractTiming timing;
+        AbstractTiming parent;
+        long start;
+        int depth;
+        boolean touched;
+        final LoadingIntTable<Accumulator> children = new LoadingIntTable<>(id -> new Accumulator());
+        // Invocations stopped on this thread itself, groups only get totals
+        int[] histogram;
+        long maxTime;
+
+        void record(final long nanos) {
+            if (this.histogram == null) {
+                this.histogram = new int[LatencyHistogram.BUCKETS];
+            }
+            this.histogram[LatencyHistogram.bucket(nanos)]++;
+            // Never 0 once something was recorded, to tell it needs merging
+            this.maxTime = Math.max(this.maxTime, Math.max(1, nanos));
+        }
+
+        Accumulator child(final AbstractTiming timing) {
+            return this.children.get(timing.id);
+        }
+    }
+
+    static class Accumulator {
+
+        long total;
+        int count;
+
+        void add(final long diff) {
+            this.total += diff;
+            this.count++;
+        }
+    }
+}
@@ -24,75 +24,229 @@
  */
 package org.inspirenxe.timings.core;
 
-import com.google.gson.JsonArray;
-import org.inspirenxe.timings.core.util.JsonUtil;
+import com.google.gson.stream.JsonWriter;
 
-import java.util.function.Function;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
 
 public final class TimingData {
 
-    static Function<Integer, TimingData> LOADER = TimingData::new;
     public final int id;
-    public int count = 0;
-    public int lagCount = 0;
-    public long totalTime = 0;
-    public long lagTotalTime = 0;
-
-    int currentTickCount = 0;
-    long currentTickTotal = 0;
+    private final TimingDataStore store;
+    private final int slot;
 
-    TimingData(final int id) {
+    TimingData(final TimingDataStore store, final int id, final AbstractTiming owner) {
         this.id = id;
+        this.store = store;
+        this.slot = store.allocate(id, owner);
+    }
+
+    TimingData(final TimingDataStore store, final int slot) {
+        this.id = store.id(slot);
+        this.store = store;
+        this.slot = slot;
+    }
+
+    public int count() {
+        return this.store.count(this.slot);
+    }
+
+    public int lagCount() {
+        return this.store.lagCount(this.slot);
+    }
+
+    public long totalTime() {
+        return this.store.totalTime(this.slot);
+    }
+
+    public long lagTotalTime() {
+        return this.store.lagTotalTime(this.slot);
     }
 
-    TimingData(final TimingData data) {
-        this.id = data.id;
-        this.totalTime = data.totalTime;
-        this.lagTotalTime = data.lagTotalTime;
-        this.count = data.count;
-        this.lagCount = data.lagCount;
+    /**
+     * Gets the count of ticks that went over a violation tier.
+     *
+     * @param tier The tier, below {@link TimingDataStore#VIOLATION_TIERS}
+     * @return The count
+     */
+    public int lagCount(final int tier) {
+        return this.store.lagCount(this.slot, tier);
+    }
+
+    /**
+     * Gets the time of ticks that went over a violation tier.
+     *
+     * @param tier The tier, below {@link TimingDataStore#VIOLATION_TIERS}
+     * @return The time in nanoseconds
+     */
+    public long lagTotalTime(final int tier) {
+        return this.store.lagTotalTime(this.slot, tier);
+    }
+
+    public long maxTime() {
+        return this.store.maxTime(this.slot);
+    }
+
+    /**
+     * Gets the bytes the server thread allocated while timing this, if
+     * allocations are tracked for its group.
+     *
+     * @return The bytes
+     */
+    public long allocatedBytes() {
+        return this.store.allocatedBytes(this.slot);
+    }
+
+    /**
+     * Gets the time the server thread spent running on a CPU while timing
+     * this, if CPU time is tracked for its group. The rest of its total time
+     * was spent blocked or waiting.
+     *
+     * @return The time in nanoseconds
+     */
+    public long cpuTime() {
+        return this.store.cpuTime(this.slot);
+    }
+
+    /**
+     * Gets a copy of the invocation times recorded since the last reset.
+     * Only the data of a timing itself records them, not its children.
+     *
+     * @return The histogram
+     */
+    public LatencyHistogram histogram() {
+        return this.store.histogram(this.slot);
+    }
+
+    /**
+     * Gets whether any invocation time was recorded since the last reset.
+     *
+     * @return Whether the histogram holds anything
+     */
+    public boolean hasHistogram() {
+        return this.store.hasHistogram(this.slot);
+    }
+
+    int currentTickCount() {
+        return this.store.currentTickCount(this.slot);
+    }
+
+    long currentTickTotal() {
+        return this.store.currentTickTotal(this.slot);
+    }
+
+    void setCurrentTick(final long currentTickTotal, final int currentTickCount) {
+        this.store.setCurrentTick(this.slot, currentTickTotal, currentTickCount);
     }
 
     void add(final long diff) {
-        ++this.currentTickCount;
-        this.currentTickTotal += diff;
+        this.store.add(this.slot, diff);
     }
 
-    void processTick(final boolean violated) {
-        this.totalTime += this.currentTickTotal;
-        this.count += this.currentTickCount;
-        if (violated) {
-            this.lagTotalTime += this.currentTickTotal;
-            this.lagCount += this.currentTickCount;
-        }
-        this.currentTickTotal = 0;
-        this.currentTickCount = 0;
+    void add(final long total, final int count) {
+        this.store.add(this.slot, total, count);
+    }
+
+    void record(final long nanos) {
+        this.store.record(this.slot, nanos);
+    }
+
+    void record(final int[] buckets, final long max) {
+        this.store.record(this.slot, buckets, max);
+    }
+
+    void addAllocatedBytes(final long bytes) {
+        this.store.addAllocatedBytes(this.slot, bytes);
+    }
+
+    void addCpuTime(final long nanos) {
+        this.store.addCpuTime(this.slot, nanos);
+    }
+
+    void processTick(final int severity) {
+        this.store.processTick(this.slot, severity);
     }
 
     void reset() {
-        this.count = 0;
-        this.lagCount = 0;
-        this.currentTickTotal = 0;
-        this.currentTickCount = 0;
-        this.totalTime = 0;
-        this.lagTotalTime = 0;
+        this.store.reset(this.slot);
+    }
+
+    /**
+     * Copies the accumulated totals into a slot of another store, letting
+     * many copies share a single set of columns.
+     *
+     * @param target The store to copy into
+     * @return The copy
+     */
+    public TimingData copy(final TimingDataStore target) {
+        return new TimingData(target, target.copyOf(this.store, this.slot));
     }
 
-    public TimingData copy() {
-        return new TimingData(this);
+    public void writeJson(final JsonWriter out) throws IOException {
+        this.writeJson(out, null);
     }
 
-    public JsonArray asJson() {
-        return JsonUtil.arrayOf(
-                this.id,
-                this.count,
-                this.totalTime,
-                this.lagCount,
-                this.lagTotalTime
-        );
+    /**
+     * Writes the totals as an array, followed by the arrays of the children
+     * when given. Anything past the original totals goes in a trailing
+     * object, so children are written whenever it is, even without any.
+     *
+     * @param out The writer
+     * @param children The children to write, if any
+     * @throws IOException If writing fails
+     */
+    public void writeJson(final JsonWriter out, @Nullable final TimingData[] children) throws IOException {
+        out.beginArray()
+                .value(this.id)
+                .value(this.count())
+                .value(this.totalTime())
+                .value(this.lagCount())
+                .value(this.lagTotalTime());
+        final boolean hasHistogram = this.hasHistogram();
+        // Tier 0 is the lag totals above
+        final boolean hasTiers = this.lagCount(1) != 0;
+        final boolean hasExtra = hasHistogram || hasTiers || this.allocatedBytes() != 0 || this.cpuTime() != 0;
+        if (children != null && (children.length > 0 || hasExtra)) {
+            out.beginArray();
+            for (final TimingData child : children) {
+                child.writeJson(out);
+            }
+            out.endArray();
+        }
+        if (hasExtra) {
+            out.beginObject();
+            if (hasHistogram) {
+                final LatencyHistogram histogram = this.histogram();
+                out.name("l").beginArray()
+                        .value(histogram.percentile(50))
+                        .value(histogram.percentile(90))
+                        .value(histogram.percentile(99))
+                        .value(histogram.max())
+                        .endArray();
+            }
+            if (hasTiers) {
+                out.name("t").beginArray();
+                for (int tier = 1; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                    out.value(this.lagCount(tier)).value(this.lagTotalTime(tier));
+                }
+                out.endArray();
+            }
+            if (this.allocatedBytes() != 0) {
+                out.name("a").value(this.allocatedBytes());
+            }
+            if (this.cpuTime() != 0) {
+                // Share of the time spent off CPU, blocked on I/O or locks
+                final long totalTime = this.totalTime();
+                out.name("c").value(this.cpuTime());
+                out.name("b").value(totalTime == 0 ? 0D : Math.round(Math.max(0D, 1D - (double) this.cpuTime() / totalTime) * 1000D) / 1000D);
+            }
+            out.endObject();
+        }
+        out.endArray();
     }
 
     boolean hasData() {
-        return this.count > 0;
+        return this.count() > 0;
     }
 }
\ No newline at end of file
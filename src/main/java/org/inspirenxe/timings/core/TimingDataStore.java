@@ -0,0 +1,640 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Column oriented storage backing every {@link TimingData} of an engine.
+ * <p>
+ * Each {@link TimingData} owns a slot, and every counter lives in a primitive
+ * column indexed by that slot. Slots are queued the first time they are added
+ * to in a tick, so folding a tick only walks the slots that were touched
+ * instead of every handler and child ever timed.
+ * <p>
+ * Columns are split in fixed size pages. Growing the store only copies the
+ * page tables, so a slot handed out to the server thread keeps pointing at
+ * the same page even if another thread registers a timing concurrently.
+ * Allocation is synchronized, everything else may only be touched by the
+ * server thread.
+ * <p>
+ * The totals of the current history interval live in a separate set of
+ * columns, which {@link #freeze()} swaps with a cleared spare set in
+ * constant time. The frozen set is handed out as a read only store any
+ * thread may read, and its columns are reused once it is {@link
+ * #recycle(TimingDataStore) recycled}.
+ */
+public final class TimingDataStore {
+
+    static final int PAGE_SHIFT = 10;
+    static final int PAGE_SIZE = 1 << TimingDataStore.PAGE_SHIFT;
+    static final int PAGE_MASK = TimingDataStore.PAGE_SIZE - 1;
+    /**
+     * Severity tiers of a tick going over budget, each with its own lag
+     * totals. Tier 0 is any tick over budget.
+     */
+    public static final int VIOLATION_TIERS = 3;
+
+    private final int firstPageSize;
+    private volatile int size;
+
+    private int[][] ids;
+    private AbstractTiming[][] owners;
+    private Interval interval;
+    private int[][] currentTickCount;
+    private long[][] currentTickTotal;
+    // Cleared interval columns to swap in on the next freeze
+    private volatile Interval spare;
+
+    // Slots added to since the last fold
+    private int[] dirty = new int[0];
+    private int dirtySize;
+
+    public TimingDataStore() {
+        this(TimingDataStore.PAGE_SIZE);
+    }
+
+    /**
+     * Creates a store sized for the given amount of slots. Stores smaller
+     * than a page are meant for frozen copies and can not grow past it.
+     *
+     * @param capacity Expected slots
+     */
+    public TimingDataStore(final int capacity) {
+        this.firstPageSize = Math.max(1, Math.min(capacity, TimingDataStore.PAGE_SIZE));
+        final int pages = Math.max(1, (capacity + TimingDataStore.PAGE_MASK) >>> TimingDataStore.PAGE_SHIFT);
+        this.ids = new int[pages][];
+        this.owners = new AbstractTiming[pages][];
+        this.interval = new Interval(pages);
+        this.currentTickCount = new int[pages][];
+        this.currentTickTotal = new long[pages][];
+    }
+
+    private TimingDataStore(final TimingDataStore live, final Interval interval) {
+        // Pages of ids and owners are never replaced, only appended to
+        this.firstPageSize = live.firstPageSize;
+        this.size = live.size;
+        this.ids = live.ids;
+        this.owners = live.owners;
+        this.interval = interval;
+    }
+
+    /**
+     * Gets the amount of slots handed out so far.
+     *
+     * @return The size
+     */
+    public int size() {
+        return this.size;
+    }
+
+    synchronized int allocate(final int id, final AbstractTiming owner) {
+        final int slot = this.size;
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int pageSize = page == 0 ? this.firstPageSize : TimingDataStore.PAGE_SIZE;
+        if (page == this.ids.length) {
+            final int pages = page << 1;
+            this.ids = Arrays.copyOf(this.ids, pages);
+            this.owners = Arrays.copyOf(this.owners, pages);
+            if (this.currentTickCount != null) {
+                this.currentTickCount = Arrays.copyOf(this.currentTickCount, pages);
+                this.currentTickTotal = Arrays.copyOf(this.currentTickTotal, pages);
+            }
+        }
+        if (this.ids[page] == null) {
+            this.ids[page] = new int[pageSize];
+            this.owners[page] = new AbstractTiming[pageSize];
+            if (this.currentTickCount != null) {
+                this.currentTickCount[page] = new int[pageSize];
+                this.currentTickTotal[page] = new long[pageSize];
+            }
+        }
+        this.interval.ensurePage(page, pageSize);
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        this.ids[page][index] = id;
+        this.owners[page][index] = owner;
+        this.size = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Swaps the totals of the current interval for cleared ones.
+     *
+     * @return A read only store holding the totals of the interval up to now
+     */
+    synchronized TimingDataStore freeze() {
+        final Interval frozen = this.interval;
+        Interval next = this.spare;
+        this.spare = null;
+        if (next == null) {
+            // The last frozen interval was not recycled yet
+            next = new Interval(this.ids.length);
+        }
+        final int size = this.size;
+        for (int page = 0; page << TimingDataStore.PAGE_SHIFT < size; page++) {
+            next.ensurePage(page, page == 0 ? this.firstPageSize : TimingDataStore.PAGE_SIZE);
+        }
+        this.interval = next;
+        return new TimingDataStore(this, frozen);
+    }
+
+    /**
+     * Adds the totals of a store frozen earlier from the same live store,
+     * as if both had been frozen at once. Must only be called on a store
+     * returned by {@link #freeze()}, by the thread owning both.
+     *
+     * @param earlier The store frozen earlier, left as it is
+     */
+    void merge(final TimingDataStore earlier) {
+        final Interval from = earlier.interval;
+        final Interval to = this.interval;
+        final int size = earlier.size;
+        for (int slot = 0; slot < size; slot++) {
+            final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+            final int index = slot & TimingDataStore.PAGE_MASK;
+            if (from.count[page][index] == 0) {
+                continue;
+            }
+            to.count[page][index] += from.count[page][index];
+            to.totalTime[page][index] += from.totalTime[page][index];
+            for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                to.lagCount[tier][page][index] += from.lagCount[tier][page][index];
+                to.lagTotalTime[tier][page][index] += from.lagTotalTime[tier][page][index];
+            }
+            to.allocatedBytes[page][index] += from.allocatedBytes[page][index];
+            to.cpuTime[page][index] += from.cpuTime[page][index];
+            if (from.maxTime[page][index] != 0) {
+                int[] histogram = to.histograms[page][index];
+                if (histogram == null) {
+                    histogram = to.histograms[page][index] = new int[LatencyHistogram.BUCKETS];
+                }
+                final int[] added = from.histograms[page][index];
+                for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+                    histogram[bucket] += added[bucket];
+                }
+                to.maxTime[page][index] = Math.max(to.maxTime[page][index], from.maxTime[page][index]);
+            }
+        }
+    }
+
+    /**
+     * Clears the columns of a store returned by {@link #freeze()} to reuse
+     * them on a later freeze. The frozen store must not be used after. May be
+     * called from any thread.
+     *
+     * @param frozen The frozen store
+     */
+    void recycle(final TimingDataStore frozen) {
+        frozen.interval.clear(frozen.size);
+        this.spare = frozen.interval;
+    }
+
+    /**
+     * Copies the accumulated totals of a slot from another store into a new
+     * slot of this one.
+     *
+     * @param source The store to copy from
+     * @param sourceSlot The slot to copy
+     * @return The new slot
+     */
+    int copyOf(final TimingDataStore source, final int sourceSlot) {
+        final int slot = this.allocate(source.id(sourceSlot), null);
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        this.interval.count[page][index] = source.count(sourceSlot);
+        this.interval.totalTime[page][index] = source.totalTime(sourceSlot);
+        for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+            this.interval.lagCount[tier][page][index] = source.lagCount(sourceSlot, tier);
+            this.interval.lagTotalTime[tier][page][index] = source.lagTotalTime(sourceSlot, tier);
+        }
+        final int[] histogram = source.interval.histograms[sourceSlot >>> TimingDataStore.PAGE_SHIFT][sourceSlot & TimingDataStore.PAGE_MASK];
+        if (histogram != null && source.hasHistogram(sourceSlot)) {
+            this.interval.histograms[page][index] = histogram.clone();
+            this.interval.maxTime[page][index] = source.maxTime(sourceSlot);
+        }
+        this.interval.allocatedBytes[page][index] = source.allocatedBytes(sourceSlot);
+        this.interval.cpuTime[page][index] = source.cpuTime(sourceSlot);
+        return slot;
+    }
+
+    /**
+     * Copies the accumulated totals of a slot into a new slot of another
+     * store, letting many copies share a single set of columns.
+     *
+     * @param slot The slot to copy
+     * @param target The store to copy into
+     * @return The copy
+     */
+    public TimingData copy(final int slot, final TimingDataStore target) {
+        return new TimingData(target, target.copyOf(this, slot));
+    }
+
+    /**
+     * Restores totals decoded from a compact copy into a new slot.
+     *
+     * @param id The id of the data
+     * @param count The count
+     * @param totalTime The total time
+     * @param lagCount The lag count of every violation tier
+     * @param lagTotalTime The lag time of every violation tier
+     * @param histogram The histogram buckets, null if nothing was recorded
+     * @param maxTime The longest invocation recorded
+     * @param allocatedBytes The bytes allocated
+     * @param cpuTime The CPU time
+     * @return The restored data
+     */
+    public TimingData restore(final int id, final int count, final long totalTime, final int[] lagCount, final long[] lagTotalTime,
+            final @Nullable int[] histogram, final long maxTime, final long allocatedBytes, final long cpuTime) {
+        final int slot = this.allocate(id, null);
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        this.interval.count[page][index] = count;
+        this.interval.totalTime[page][index] = totalTime;
+        for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+            this.interval.lagCount[tier][page][index] = lagCount[tier];
+            this.interval.lagTotalTime[tier][page][index] = lagTotalTime[tier];
+        }
+        this.interval.histograms[page][index] = histogram;
+        this.interval.maxTime[page][index] = histogram == null ? 0 : maxTime;
+        this.interval.allocatedBytes[page][index] = allocatedBytes;
+        this.interval.cpuTime[page][index] = cpuTime;
+        return new TimingData(this, slot);
+    }
+
+    public int id(final int slot) {
+        return this.ids[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    /**
+     * Gets the timing a slot holds data of, either its own data if its
+     * {@link #id(int)} is the id of the timing or the data of a child.
+     *
+     * @param slot The slot
+     * @return The timing, null for copies
+     */
+    @Nullable
+    public AbstractTiming owner(final int slot) {
+        return this.owners[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    public int count(final int slot) {
+        return this.interval.count[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    public int lagCount(final int slot) {
+        return this.lagCount(slot, 0);
+    }
+
+    public int lagCount(final int slot, final int tier) {
+        return this.interval.lagCount[tier][slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    public long totalTime(final int slot) {
+        return this.interval.totalTime[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    public long lagTotalTime(final int slot) {
+        return this.lagTotalTime(slot, 0);
+    }
+
+    public long lagTotalTime(final int slot, final int tier) {
+        return this.interval.lagTotalTime[tier][slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    public long maxTime(final int slot) {
+        return this.interval.maxTime[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    /**
+     * Gets the bytes the server thread allocated in the clocked invocations
+     * of a slot, extrapolated like its time.
+     *
+     * @param slot The slot
+     * @return The bytes, 0 unless allocations are tracked
+     */
+    public long allocatedBytes(final int slot) {
+        return this.interval.allocatedBytes[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    /**
+     * Gets the CPU time the server thread spent in the clocked invocations
+     * of a slot, extrapolated like its time.
+     *
+     * @param slot The slot
+     * @return The time in nanoseconds, 0 unless CPU time is tracked
+     */
+    public long cpuTime(final int slot) {
+        return this.interval.cpuTime[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    /**
+     * Gets a copy of the invocation times recorded for a slot.
+     *
+     * @param slot The slot
+     * @return The histogram, empty if nothing was recorded
+     */
+    public LatencyHistogram histogram(final int slot) {
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        final int[] histogram = this.interval.histograms[page][index];
+        return histogram == null ? new LatencyHistogram() : new LatencyHistogram(histogram.clone(), this.interval.maxTime[page][index]);
+    }
+
+    boolean hasHistogram(final int slot) {
+        // Cleared histograms are kept, only a max tells something was recorded
+        return this.interval.maxTime[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK] != 0;
+    }
+
+    int currentTickCount(final int slot) {
+        return this.currentTickCount[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    long currentTickTotal(final int slot) {
+        return this.currentTickTotal[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK];
+    }
+
+    void setCurrentTick(final int slot, final long currentTickTotal, final int currentTickCount) {
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        this.currentTickTotal[page][index] = currentTickTotal;
+        this.currentTickCount[page][index] = currentTickCount;
+    }
+
+    void add(final int slot, final long diff) {
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        if (this.currentTickCount[page][index]++ == 0) {
+            this.markDirty(slot);
+        }
+        this.currentTickTotal[page][index] += diff;
+    }
+
+    void add(final int slot, final long total, final int count) {
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        if (this.currentTickCount[page][index] == 0) {
+            this.markDirty(slot);
+        }
+        this.currentTickCount[page][index] += count;
+        this.currentTickTotal[page][index] += total;
+    }
+
+    void record(final int slot, final long nanos) {
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        int[] histogram = this.interval.histograms[page][index];
+        if (histogram == null) {
+            histogram = this.interval.histograms[page][index] = new int[LatencyHistogram.BUCKETS];
+        }
+        histogram[LatencyHistogram.bucket(nanos)]++;
+        // Never 0 once something was recorded
+        if (nanos >= this.interval.maxTime[page][index]) {
+            this.interval.maxTime[page][index] = Math.max(1, nanos);
+        }
+    }
+
+    void record(final int slot, final int[] buckets, final long max) {
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        int[] histogram = this.interval.histograms[page][index];
+        if (histogram == null) {
+            histogram = this.interval.histograms[page][index] = new int[LatencyHistogram.BUCKETS];
+        }
+        LatencyHistogram.merge(histogram, buckets);
+        if (max > this.interval.maxTime[page][index]) {
+            this.interval.maxTime[page][index] = max;
+        }
+    }
+
+    void addAllocatedBytes(final int slot, final long bytes) {
+        this.interval.allocatedBytes[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK] += bytes;
+    }
+
+    void addCpuTime(final int slot, final long nanos) {
+        this.interval.cpuTime[slot >>> TimingDataStore.PAGE_SHIFT][slot & TimingDataStore.PAGE_MASK] += nanos;
+    }
+
+    private void markDirty(final int slot) {
+        if (this.dirtySize == this.dirty.length) {
+            this.dirty = Arrays.copyOf(this.dirty, Math.max(TimingDataStore.PAGE_SIZE, this.dirtySize << 1));
+        }
+        this.dirty[this.dirtySize++] = slot;
+    }
+
+    /**
+     * Copies the current tick of every slot added to since the last fold,
+     * as many as fit, leaving out the data of special timings themselves.
+     *
+     * @param engine The engine owning this store
+     * @param own Whether to copy the slots holding the data of their owner,
+     *     or the ones holding the data of its children
+     * @param rowOwners Receives the id of the owner
+     * @param rowIds Receives the id
+     * @param rowTotals Receives the current tick total
+     * @param rowCounts Receives the current tick count
+     * @param offset The first row to copy to
+     * @return The row after the last one, counting those that did not fit
+     */
+    int copyTick(final VanillaTimingsEngine engine, final boolean own, final int[] rowOwners, final int[] rowIds, final long[] rowTotals,
+            final int[] rowCounts, final int offset) {
+        int row = offset;
+        for (int i = 0; i < this.dirtySize; i++) {
+            final int slot = this.dirty[i];
+            final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+            final int index = slot & TimingDataStore.PAGE_MASK;
+            final AbstractTiming owner = this.owners[page][index];
+            final int id = this.ids[page][index];
+            // The engine tick is still running, only its children are final
+            if ((id == owner.id) != own || own && engine.isSpecialTiming(owner)) {
+                continue;
+            }
+            if (row < rowIds.length) {
+                rowOwners[row] = owner.id;
+                rowIds[row] = id;
+                rowTotals[row] = this.currentTickTotal[page][index];
+                rowCounts[row] = this.currentTickCount[page][index];
+            }
+            row++;
+        }
+        return row;
+    }
+
+    void processTick(final int slot, final int severity) {
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        final long currentTickTotal = this.currentTickTotal[page][index];
+        final int currentTickCount = this.currentTickCount[page][index];
+        this.interval.totalTime[page][index] += currentTickTotal;
+        this.interval.count[page][index] += currentTickCount;
+        for (int tier = 0; tier < severity; tier++) {
+            this.interval.lagTotalTime[tier][page][index] += currentTickTotal;
+            this.interval.lagCount[tier][page][index] += currentTickCount;
+        }
+        this.currentTickTotal[page][index] = 0;
+        this.currentTickCount[page][index] = 0;
+    }
+
+    /**
+     * Folds the current tick of every slot added to since the last fold into
+     * its totals. Only slots owned by special timings, which the engine tick
+     * folds itself once it has timed the fold of everything else, or only
+     * slots owned by regular timings are folded in one pass. Slots owned by
+     * timings that are still running stay queued for the next fold.
+     *
+     * @param severity The amount of violation tiers the tick went over
+     * @param engine The engine owning this store
+     * @param special Whether to fold the slots of special timings
+     */
+    void processTick(final int severity, final VanillaTimingsEngine engine, final boolean special) {
+        final int[] dirty = this.dirty;
+        final int dirtySize = this.dirtySize;
+        int kept = 0;
+        for (int i = 0; i < dirtySize; i++) {
+            final int slot = dirty[i];
+            final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+            final int index = slot & TimingDataStore.PAGE_MASK;
+            final AbstractTiming owner = this.owners[page][index];
+            if (engine.isSpecialTiming(owner) != special) {
+                dirty[kept++] = slot;
+                continue;
+            }
+            if (owner.timingDepth != 0) {
+                dirty[kept++] = slot;
+                engine.deferTick(owner);
+                continue;
+            }
+            final long tickTotal = this.currentTickTotal[page][index];
+            final int tickCount = this.currentTickCount[page][index];
+            this.interval.totalTime[page][index] += tickTotal;
+            this.interval.count[page][index] += tickCount;
+            for (int tier = 0; tier < severity; tier++) {
+                this.interval.lagTotalTime[tier][page][index] += tickTotal;
+                this.interval.lagCount[tier][page][index] += tickCount;
+            }
+            this.currentTickTotal[page][index] = 0;
+            this.currentTickCount[page][index] = 0;
+        }
+        this.dirtySize = kept;
+    }
+
+    void reset(final int slot) {
+        final int page = slot >>> TimingDataStore.PAGE_SHIFT;
+        final int index = slot & TimingDataStore.PAGE_MASK;
+        this.interval.count[page][index] = 0;
+        this.currentTickTotal[page][index] = 0;
+        this.currentTickCount[page][index] = 0;
+        this.interval.totalTime[page][index] = 0;
+        for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+            this.interval.lagCount[tier][page][index] = 0;
+            this.interval.lagTotalTime[tier][page][index] = 0;
+        }
+        final int[] histogram = this.interval.histograms[page][index];
+        if (histogram != null) {
+            Arrays.fill(histogram, 0);
+            this.interval.maxTime[page][index] = 0;
+        }
+        this.interval.allocatedBytes[page][index] = 0;
+        this.interval.cpuTime[page][index] = 0;
+    }
+
+    private static final class Interval {
+
+        int[][] count;
+        long[][] totalTime;
+        // Indexed by tier first
+        final int[][][] lagCount = new int[TimingDataStore.VIOLATION_TIERS][][];
+        final long[][][] lagTotalTime = new long[TimingDataStore.VIOLATION_TIERS][][];
+        // Only allocated once a slot records an invocation
+        int[][][] histograms;
+        long[][] maxTime;
+        long[][] allocatedBytes;
+        long[][] cpuTime;
+
+        Interval(final int pages) {
+            this.count = new int[pages][];
+            this.totalTime = new long[pages][];
+            for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                this.lagCount[tier] = new int[pages][];
+                this.lagTotalTime[tier] = new long[pages][];
+            }
+            this.histograms = new int[pages][][];
+            this.maxTime = new long[pages][];
+            this.allocatedBytes = new long[pages][];
+            this.cpuTime = new long[pages][];
+        }
+
+        void ensurePage(final int page, final int pageSize) {
+            if (page >= this.count.length) {
+                final int pages = Math.max(page + 1, this.count.length << 1);
+                this.count = Arrays.copyOf(this.count, pages);
+                this.totalTime = Arrays.copyOf(this.totalTime, pages);
+                for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                    this.lagCount[tier] = Arrays.copyOf(this.lagCount[tier], pages);
+                    this.lagTotalTime[tier] = Arrays.copyOf(this.lagTotalTime[tier], pages);
+                }
+                this.histograms = Arrays.copyOf(this.histograms, pages);
+                this.maxTime = Arrays.copyOf(this.maxTime, pages);
+                this.allocatedBytes = Arrays.copyOf(this.allocatedBytes, pages);
+                this.cpuTime = Arrays.copyOf(this.cpuTime, pages);
+            }
+            if (this.count[page] == null) {
+                this.count[page] = new int[pageSize];
+                this.totalTime[page] = new long[pageSize];
+                for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                    this.lagCount[tier][page] = new int[pageSize];
+                    this.lagTotalTime[tier][page] = new long[pageSize];
+                }
+                this.histograms[page] = new int[pageSize][];
+                this.maxTime[page] = new long[pageSize];
+                this.allocatedBytes[page] = new long[pageSize];
+                this.cpuTime[page] = new long[pageSize];
+            }
+        }
+
+        void clear(final int size) {
+            for (int page = 0; page << TimingDataStore.PAGE_SHIFT < size && page < this.count.length; page++) {
+                if (this.count[page] == null) {
+                    continue;
+                }
+                Arrays.fill(this.count[page], 0);
+                Arrays.fill(this.totalTime[page], 0);
+                for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                    Arrays.fill(this.lagCount[tier][page], 0);
+                    Arrays.fill(this.lagTotalTime[tier][page], 0);
+                }
+                Arrays.fill(this.maxTime[page], 0);
+                Arrays.fill(this.allocatedBytes[page], 0);
+                Arrays.fill(this.cpuTime[page], 0);
+                for (final int[] histogram : this.histograms[page]) {
+                    if (histogram != null) {
+                        Arrays.fill(histogram, 0);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -26,7 +26,10 @@ package org.inspirenxe.timings.core;
 
 import co.aikar.timings.Timing;
 
-import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class TimingIdentifier {
 
@@ -37,22 +40,20 @@ public final class TimingIdentifier {
     private final int hashCode;
 
     public TimingIdentifier(final String groupId, final String name, final Timing group, final boolean protect) {
-        this.groupId = groupId.intern();
-        this.name = name.intern();
+        this.groupId = groupId;
+        this.name = name;
         this.group = group instanceof AbstractTiming ? (AbstractTiming) group : null;
         this.protect = protect;
         this.hashCode = (31 * this.groupId.hashCode()) + this.name.hashCode();
     }
 
-    // We are using .intern() on the strings so it is guaranteed to be an
-    // identity comparison.
     @Override
     public boolean equals(final Object o) {
         if (!(o instanceof TimingIdentifier)) {
             return false;
         }
         final TimingIdentifier that = (TimingIdentifier) o;
-        return this.groupId == that.groupId && this.name == that.name;
+        return this.groupId.equals(that.groupId) && this.name.equals(that.name);
     }
 
     @Override
@@ -62,15 +63,19 @@ public final class TimingIdentifier {
 
     public static class TimingGroup {
 
-        private static int idPool = 1;
+        private static final AtomicInteger idPool = new AtomicInteger(1);
 
         public final int id;
         public final String name;
-        public final ArrayDeque<AbstractTiming> timings;
+        // The first name a timing was registered with is the canonical one,
+        // no need to go through the global intern table.
+        final ConcurrentMap<String, AbstractTiming> timingsByName;
+        public final Collection<AbstractTiming> timings;
         TimingGroup(final String name) {
-            this.id = TimingGroup.idPool++;
+            this.id = TimingGroup.idPool.getAndIncrement();
             this.name = name;
-            this.timings = new ArrayDeque<>(64);
+            this.timingsByName = new ConcurrentHashMap<>(64);
+            this.timings = this.timingsByName.values();
         }
     }
 }
\ No newline at end of file
@@ -31,6 +31,7 @@ import org.inspirenxe.timings.core.command.TimingsCommand;
 import org.inspirenxe.timings.core.duck.EngineDuck;
 import org.spongepowered.api.Engine;
 import org.spongepowered.api.command.Command;
+import org.spongepowered.api.config.ConfigDir;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.lifecycle.ConstructPluginEvent;
 import org.spongepowered.api.event.lifecycle.RegisterCommandEvent;
@@ -38,6 +39,7 @@ import org.spongepowered.api.event.lifecycle.StartingEngineEvent;
 import org.spongepowered.plugin.PluginContainer;
 import org.spongepowered.plugin.builtin.jvm.Plugin;
 
+import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.ServiceLoader;
@@ -57,11 +59,13 @@ public final class Timings {
     private final StandardTimingsEnvironment environment;
     private final Set<TimingsService> services;
     @Inject
-    public Timings(final PluginContainer plugin, final Logger logger) {
+    public Timings(final PluginContainer plugin, final Logger logger, @ConfigDir(sharedRoot = false) final Path configDir) {
         Timings.instance = this;
         this.plugin = plugin;
         this.logger = logger;
         this.environment = new StandardTimingsEnvironment();
+        this.environment.setHistoryDirectory(configDir.resolve("history"));
+        this.environment.setReportDirectory(configDir.resolve("reports"));
 
         // Discover all our services
         this.services = new HashSet<>();
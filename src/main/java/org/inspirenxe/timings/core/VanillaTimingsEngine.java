@@ -29,21 +29,32 @@ import co.aikar.timings.TimingsEngine;
 import com.google.common.collect.EvictingQueue;
 import net.kyori.adventure.audience.Audience;
 import org.apache.logging.log4j.Logger;
+import org.inspirenxe.timings.core.export.MetricsCollector;
+import org.inspirenxe.timings.core.export.MetricsServer;
+import org.inspirenxe.timings.core.export.ReportSink;
 import org.inspirenxe.timings.core.history.MinuteReport;
 import org.inspirenxe.timings.core.history.HistoryRecord;
-import org.inspirenxe.timings.core.util.LoadingMap;
-import org.inspirenxe.timings.core.util.MRUMapCache;
+import org.inspirenxe.timings.core.history.HistoryRollups;
+import org.inspirenxe.timings.core.history.HistoryStore;
+import org.inspirenxe.timings.core.history.TickHistory;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.plugin.PluginContainer;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
@@ -51,37 +62,150 @@ public final class VanillaTimingsEngine implements TimingsEngine {
 
     public final StandardTimingsEnvironment environment;
     public final Logger logger;
+    public final TimingDataStore dataStore;
     public final EngineTickTiming engineTickTiming;
     public final AbstractTiming timingsTick;
     public final TicksTracker ticksTracker;
+    public final OverheadGovernor governor;
+    public final TickHistory tickHistory;
+    public final SpikeRecorder spikes;
+    public final GcMonitor gcMonitor;
     public final Map<String, TimingIdentifier.TimingGroup> timingGroups;
     private final TimingIdentifier.TimingGroup defaultGroup;
-    private final Map<TimingIdentifier, AbstractTiming> timingsByIdentifier;
     public final Collection<AbstractTiming> timings;
     public final ArrayDeque<MinuteReport> timingsReportsPerMinute;
+    // Records of the current run, only accessed by the history thread
     public final Queue<HistoryRecord> historicalReports;
+    @Nullable public final HistoryStore historyStore;
+    public final HistoryRollups rollups;
+    public final MetricsCollector metrics;
+    @Nullable public final MetricsServer metricsServer;
     public final List<Audience> audiences;
+    // Audiences waiting for a trace, written at the end of the tick
+    public final List<Audience> traceAudiences;
+    // Seconds of history on disk the next report covers, 0 for the current run
+    public long reportWindow;
+    // Where the next report goes, null for the report URL of the environment
+    @Nullable public ReportSink reportSink;
+    private final ArrayDeque<AbstractTiming> deferredTimings;
+    private final List<ThreadTimingContext> threadContexts;
+    private final ThreadLocal<ThreadTimingContext> threadContext;
+    private final ExecutorService historyExecutor;
+    // Last record built and the full reset the history thread is at, only
+    // accessed by the history thread
+    @Nullable private HistoryRecord lastHistory;
+    // Totals of the current interval frozen early for a report, and the full
+    // reset they belong to, only accessed by the history thread
+    @Nullable private TimingDataStore pendingTotals;
+    private int pendingResets;
+    // Time the engine ticked for in the current interval before its totals
+    // were frozen early
+    private long frozenTotalTime;
+    // Copies of the minutes of the current interval share one store, sized
+    // for every minute the interval can hold
+    private TimingDataStore minuteStore;
+    private int minuteCapacity;
+    private int historyResets;
+    private int fullResets;
 
+    Thread mainThread;
     AbstractTiming currentTiming;
     boolean needsFullReset = false;
     boolean needsRecheckEnabled = false;
+    // Sections timed on the server thread this tick
+    int timedSections;
+    // Whether a flight recording wants section events, checked every tick
+    boolean jfrSections;
 
-    public VanillaTimingsEngine(final Logger logger, final StandardTimingsEnvironment environment, final TimingIdentifier engineTickIdentifier) {
+    /**
+     * Creates an engine.
+     *
+     * @param logger The logger
+     * @param environment The environment
+     * @param engineTickIdentifier The identifier of the tick of the engine
+     * @param serveMetrics Whether to serve the metrics of this engine, only
+     *     one engine may serve them on the port of the environment
+     */
+    public VanillaTimingsEngine(final Logger logger, final StandardTimingsEnvironment environment, final TimingIdentifier engineTickIdentifier,
+            final boolean serveMetrics) {
         this.environment = environment;
         this.logger = logger;
 
         // Order matters
-        this.timingGroups = MRUMapCache.of(LoadingMap.newIdentityHashMap(TimingIdentifier.TimingGroup::new, 64));
+        this.dataStore = new TimingDataStore();
+        this.deferredTimings = new ArrayDeque<>();
+        this.threadContexts = new CopyOnWriteArrayList<>();
+        this.threadContext = ThreadLocal.withInitial(() -> {
+            final ThreadTimingContext context = new ThreadTimingContext(Thread.currentThread());
+            this.threadContexts.add(context);
+            return context;
+        });
+        this.timingGroups = new ConcurrentHashMap<>(64);
         this.defaultGroup = this.group("Minecraft");
-        this.timingsByIdentifier = Collections.synchronizedMap(LoadingMap.newHashMap(id -> new AbstractTiming.Instance(this, id),
-                256, .5F));
         this.engineTickTiming = new EngineTickTiming(this, engineTickIdentifier);
+        this.group(engineTickIdentifier.groupId).timingsByName.putIfAbsent(engineTickIdentifier.name, this.engineTickTiming);
         this.timingsTick = this.of("Timings Tick", this.engineTickTiming);
+        // Only now known to be special
+        this.engineTickTiming.checkEnabled();
+        this.timingsTick.checkEnabled();
         this.ticksTracker = new TicksTracker();
+        this.gcMonitor = new GcMonitor(256);
+        this.governor = new OverheadGovernor(this);
+        this.tickHistory = new TickHistory(environment.tickHistoryLength());
+        this.spikes = new SpikeRecorder(environment.spikeCapacity(), 2048);
         this.timings = new ArrayDeque<>();
         this.timingsReportsPerMinute = new ArrayDeque<>();
+        this.newMinuteStore();
         this.historicalReports = EvictingQueue.create(12);
+        this.rollups = new HistoryRollups(16);
+        final Path historyDirectory = environment.historyDirectory();
+        this.historyStore = historyDirectory == null ? null : new HistoryStore(logger,
+                historyDirectory.resolve(engineTickIdentifier.name.toLowerCase(Locale.ROOT).replace(' ', '-')),
+                environment.historyDiskLimit() * 1024L * 1024L, environment.historyRetention() * 86400L);
+        this.historyExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "Timings history thread");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.metrics = new MetricsCollector(this);
+        this.metricsServer = serveMetrics ? this.metricsServer(environment) : null;
         this.audiences = new ArrayList<>();
+        this.traceAudiences = new ArrayList<>();
+    }
+
+    @Nullable
+    private MetricsServer metricsServer(final StandardTimingsEnvironment environment) {
+        if (environment.metricsPort() < 0) {
+            return null;
+        }
+        final MetricsServer server;
+        try {
+            server = new MetricsServer(environment.metricsHost(), environment.metricsPort(), this.metrics::snapshot);
+        } catch (final IOException e) {
+            this.logger.error("Failed to bind the timings metrics endpoint to " + environment.metricsHost() + ":" + environment.metricsPort(), e);
+            return null;
+        }
+        // Started from the history thread so its dispatcher is a daemon too
+        this.historyExecutor.execute(server::start);
+        this.logger.info("Serving timings metrics at http://{}:{}/metrics", environment.metricsHost(), server.address().getPort());
+        return server;
+    }
+
+    /**
+     * Stops serving metrics, recording history and watching the garbage
+     * collectors, once the engine stopped ticking. History already handed
+     * to the history thread is still written to disk.
+     */
+    public void shutdown() {
+        this.gcMonitor.close();
+        if (this.metricsServer != null) {
+            this.metricsServer.stop();
+        }
+        if (this.historyStore != null) {
+            this.historyExecutor.execute(this.historyStore::flush);
+        }
+        this.historyExecutor.shutdown();
     }
 
     @Override
@@ -96,15 +220,25 @@ public final class VanillaTimingsEngine implements TimingsEngine {
     }
 
     public AbstractTiming of(final String id, final String name, final @Nullable Timing group) {
-        return this.timingsByIdentifier.get(new TimingIdentifier(id, name, group, true));
+        return this.of(this.group(id), name, group);
     }
 
     public AbstractTiming of(final String name, final Timing group) {
-        return this.timingsByIdentifier.get(new TimingIdentifier(this.defaultGroup.name, name, group, true));
+        return this.of(this.defaultGroup, name, group);
     }
 
     public AbstractTiming of(final String name) {
-        return this.timingsByIdentifier.get(new TimingIdentifier(this.defaultGroup.name, name, null, true));
+        return this.of(this.defaultGroup, name, null);
+    }
+
+    private AbstractTiming of(final TimingIdentifier.TimingGroup timingGroup, final String name, final @Nullable Timing group) {
+        // Lookups of existing timings neither lock nor allocate
+        final AbstractTiming timing = timingGroup.timingsByName.get(name);
+        if (timing != null) {
+            return timing;
+        }
+        return timingGroup.timingsByName.computeIfAbsent(name,
+                key -> new AbstractTiming.Instance(this, new TimingIdentifier(timingGroup.name, key, group, true)));
     }
 
     /**
@@ -114,57 +248,216 @@ public final class VanillaTimingsEngine implements TimingsEngine {
         this.needsFullReset = true;
     }
 
+    /**
+     * Re-checks the enabled state and sampling rate of every timing on the
+     * next tick
+     */
+    public void recheck() {
+        this.needsRecheckEnabled = true;
+    }
+
     /**
      * Counts the number of times a timer caused TPS loss.
      */
     public void tick() {
         if (this.environment.enabled()) {
-            boolean violated = this.engineTickTiming.violated();
+            // Handlers are not blamed for the time collections paused them
+            final int severity = this.engineTickTiming.severity(this.engineTickTiming.data.currentTickTotal() - this.engineTickTiming.tickGcTime);
 
-            for (final AbstractTiming timing : this.timings) {
-                if (this.isSpecialTiming(timing)) {
-                    continue;
-                }
-                timing.processTick(violated);
+            this.mergeThreadContexts();
+            final long tickTotal = this.engineTickTiming.data.currentTickTotal();
+            if (tickTotal >= this.environment.spikeThreshold() * 1000000L && this.spikes.wants(tickTotal)) {
+                this.spikes.capture(this.dataStore, this, tickTotal);
             }
+            this.dataStore.processTick(severity, this, false);
+            this.processDeferred();
 
             this.ticksTracker.playerTicks += Sponge.server().onlinePlayers().size();
             this.ticksTracker.timedTicks++;
         }
     }
 
+    /**
+     * Folds the tick of the engine tick and timings tick, once the time spent
+     * folding every other timing has been added to them.
+     */
+    void tickSpecial(final int severity) {
+        this.dataStore.processTick(severity, this, true);
+        this.processDeferred();
+    }
+
+    ThreadTimingContext threadContext() {
+        return this.threadContext.get();
+    }
+
+    private void mergeThreadContexts() {
+        for (int i = 0; i < this.threadContexts.size(); i++) {
+            final ThreadTimingContext context = this.threadContexts.get(i);
+            // Check first, anything a dead thread did is then visible to merge
+            final boolean alive = context.thread.isAlive();
+            if (!context.merge() && !alive) {
+                this.threadContexts.remove(i--);
+            }
+        }
+    }
+
+    private void processDeferred() {
+        // Timings left running over the tick boundary are folded next tick
+        AbstractTiming deferred;
+        while ((deferred = this.deferredTimings.poll()) != null) {
+            deferred.timingDepth = 0;
+            deferred.start = 0;
+        }
+    }
+
     public void stop() {
         this.environment.setEnabled(false);
         this.recheckEnabled();
     }
 
     void recheckEnabled() {
-        synchronized (this.timingsByIdentifier) {
-            for (final AbstractTiming timings : this.timingsByIdentifier.values()) {
+        for (final TimingIdentifier.TimingGroup group : this.timingGroups.values()) {
+            for (final AbstractTiming timings : group.timings) {
                 timings.checkEnabled();
             }
         }
         this.needsRecheckEnabled = false;
     }
 
+    /**
+     * Ends the current history interval. The totals of the interval are
+     * frozen and turned into a {@link HistoryRecord} off the server thread,
+     * which is collected by a later tick.
+     */
+    void archiveHistory() {
+        final long startTime = this.ticksTracker.historyStart / 1000;
+        final long endTime = System.currentTimeMillis() / 1000;
+        final MinuteReport[] minuteReports = HistoryRecord.minuteReports(this);
+        final long totalTime = this.frozenTotalTime + this.engineTickTiming.data.totalTime();
+        // The tick history is only safe to read on the server thread
+        final double tps5s = this.tickHistory.tps(20 * 5);
+        final double tps1m = this.tickHistory.tps(20 * 60);
+        final double overhead = this.governor.overhead();
+        final long timingCost = this.governor.timingCost();
+        final TimingDataStore frozen = this.dataStore.freeze();
+        final int fullResets = this.fullResets;
+        this.resetTimings();
+
+        this.historyExecutor.execute(() -> {
+            try {
+                this.resetHistory(fullResets);
+                this.mergePending(frozen, fullResets);
+                // Records are encoded against the previous one of the same run
+                final HistoryRecord record = new HistoryRecord(this, frozen, startTime, endTime, minuteReports, totalTime, this.lastHistory);
+                this.lastHistory = record;
+                this.historicalReports.add(record);
+                this.rollups.record(frozen, this.engineTickTiming, endTime);
+                this.metrics.record(frozen, tps5s, tps1m, overhead, timingCost);
+                if (this.historyStore != null) {
+                    this.historyStore.append(record);
+                }
+            } catch (final Throwable t) {
+                this.logger.error("Failed to record timings history", t);
+            } finally {
+                this.dataStore.recycle(frozen);
+            }
+        });
+    }
+
+    /**
+     * Hands every record of the current run to an action on the history
+     * thread, followed by a record of the current interval up to now. Only
+     * freezes the current totals on the server thread, they are added back
+     * to the rest of the interval when it ends, so the interval goes on.
+     *
+     * @param action The action
+     */
+    public void withHistory(final Consumer<HistoryRecord[]> action) {
+        final long startTime = this.ticksTracker.historyStart / 1000;
+        final long endTime = System.currentTimeMillis() / 1000;
+        final MinuteReport[] minuteReports = HistoryRecord.minuteReports(this);
+        this.frozenTotalTime += this.engineTickTiming.data.totalTime();
+        final long totalTime = this.frozenTotalTime;
+        final TimingDataStore frozen = this.dataStore.freeze();
+        final int fullResets = this.fullResets;
+        this.historyExecutor.execute(() -> {
+            try {
+                this.resetHistory(fullResets);
+                this.mergePending(frozen, fullResets);
+                this.pendingTotals = frozen;
+                this.pendingResets = fullResets;
+                final HistoryRecord[] history = this.historicalReports.toArray(new HistoryRecord[this.historicalReports.size() + 1]);
+                history[history.length - 1] = new HistoryRecord(this, frozen, startTime, endTime, minuteReports, totalTime, null);
+                action.accept(history);
+            } catch (final Throwable t) {
+                this.logger.error("Failed to read timings history", t);
+            }
+        });
+    }
+
+    // Adds the totals frozen earlier in the interval, unless a full reset
+    // discarded them since
+    private void mergePending(final TimingDataStore frozen, final int fullResets) {
+        final TimingDataStore pending = this.pendingTotals;
+        if (pending == null) {
+            return;
+        }
+        this.pendingTotals = null;
+        if (this.pendingResets == fullResets) {
+            frozen.merge(pending);
+        }
+        this.dataStore.recycle(pending);
+    }
+
+    // Anything from before a full reset is stale
+    private void resetHistory(final int fullResets) {
+        if (this.historyResets != fullResets) {
+            this.historicalReports.clear();
+            this.lastHistory = null;
+            this.historyResets = fullResets;
+        }
+    }
+
+    /**
+     * Gets the store the minute reports of the current interval copy their
+     * totals into. Must be called from the server thread.
+     *
+     * @return The store
+     */
+    public TimingDataStore minuteStore() {
+        if (this.minuteStore.size() >= this.minuteCapacity) {
+            // The history interval grew since the interval started
+            this.newMinuteStore();
+        }
+        return this.minuteStore;
+    }
+
+    private void newMinuteStore() {
+        // Every minute ending in the interval and the one in progress
+        this.minuteCapacity = this.environment.historyInterval() / 1200 + 2;
+        this.minuteStore = new TimingDataStore(this.minuteCapacity);
+    }
+
     void resetTimings() {
         if (this.needsFullReset) {
             // Full resets need to re-check every handlers enabled state
-            // Timing map can be modified from async so we must sync on it.
-            synchronized (this.timingsByIdentifier) {
-                for (final AbstractTiming timings : this.timingsByIdentifier.values()) {
+            // Timing maps can be modified from async, but are concurrent.
+            for (final TimingIdentifier.TimingGroup group : this.timingGroups.values()) {
+                for (final AbstractTiming timings : group.timings) {
                     timings.reset(true);
                 }
             }
             if (this.ticksTracker.timingStart != 0) {
                 this.logger.info("Timings reset");
             }
-            this.historicalReports.clear();
+            this.fullResets++;
+            this.spikes.clear();
             this.needsFullReset = false;
             this.needsRecheckEnabled = false;
             this.ticksTracker.timingStart = System.currentTimeMillis();
         } else {
-            // Soft resets only need to act on timings that have done something
+            // Soft resets only need to act on timings that have done something,
+            // their totals were frozen already
             // Handlers can only be modified on main thread.
             for (final AbstractTiming timings : this.timings) {
                 timings.reset(false);
@@ -172,7 +465,9 @@ public final class VanillaTimingsEngine implements TimingsEngine {
         }
 
         this.timings.clear();
+        this.frozenTotalTime = 0;
         this.timingsReportsPerMinute.clear();
+        this.newMinuteStore();
 
         this.ticksTracker.resetTicks(true);
         this.ticksTracker.historyStart = System.currentTimeMillis();
@@ -184,10 +479,36 @@ public final class VanillaTimingsEngine implements TimingsEngine {
             return this.defaultGroup;
         }
 
-        return this.timingGroups.get(group.intern());
+        final TimingIdentifier.TimingGroup timingGroup = this.timingGroups.get(group);
+        if (timingGroup != null) {
+            return timingGroup;
+        }
+        return this.timingGroups.computeIfAbsent(group, TimingIdentifier.TimingGroup::new);
+    }
+
+    /**
+     * Gets a timing by its id. Walks every timing, meant for presenting data.
+     *
+     * @param id The id
+     * @return The timing or null if there is none
+     */
+    @Nullable
+    public AbstractTiming timing(final int id) {
+        for (final TimingIdentifier.TimingGroup group : this.timingGroups.values()) {
+            for (final AbstractTiming timing : group.timings) {
+                if (timing.id == id) {
+                    return timing;
+                }
+            }
+        }
+        return null;
+    }
+
+    void deferTick(final AbstractTiming timing) {
+        this.deferredTimings.add(timing);
     }
 
     public boolean isSpecialTiming(final Timing timing) {
         return timing == this.engineTickTiming || timing == this.timingsTick;
     }
-}
\ No newline at end of file
+}
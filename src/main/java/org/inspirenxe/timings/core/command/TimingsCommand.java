@@ -26,15 +26,29 @@ package org.inspirenxe.timings.core.command;
 
 import net.kyori.adventure.identity.Identity;
 import net.kyori.adventure.text.Component;
+import org.inspirenxe.timings.core.AbstractTiming;
+import org.inspirenxe.timings.core.SpikeRecorder;
 import org.inspirenxe.timings.core.VanillaTimingsEngine;
 import org.inspirenxe.timings.core.duck.EngineDuck;
+import org.inspirenxe.timings.core.export.FileReportSink;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.Command;
 import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.parameter.CommandContext;
+import org.spongepowered.api.command.parameter.Parameter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 public final class TimingsCommand {
 
     public static Command.Parameterized timingsCommand() {
+        final Parameter.Value<String> groupParameter = Parameter.string().key("group").build();
+        final Parameter.Value<Integer> rateParameter = Parameter.integerNumber().key("rate").build();
+        final Parameter.Value<Integer> countParameter = Parameter.integerNumber().key("count").optional().build();
+        final Parameter.Value<Integer> hoursParameter = Parameter.integerNumber().key("hours").optional().build();
+        final Parameter.Value<Boolean> enabledParameter = Parameter.bool().key("enabled").build();
         return Command.builder()
                 .permission("sponge.command.timings")
                 .shortDescription(Component.text("Manages Sponge Timings data to see performance of the server."))
@@ -50,14 +64,16 @@ public final class TimingsCommand {
                         })
                         .build(), "reset")
                 .addChild(Command.builder()
-                        .executor(context -> {
-                            final VanillaTimingsEngine manager = ((EngineDuck) Sponge.server()).timingsManager();
-                            if (!manager.environment.enabled()) {
-                                return CommandResult.error(Component.text("Please enable timings by typing /sponge timings on"));
-                            }
-                            manager.audiences.add(context.cause().audience());
-                            return CommandResult.success();
-                        })
+                        .addChild(Command.builder()
+                                .addChild(Command.builder()
+                                        .addParameter(hoursParameter)
+                                        .executor(context -> TimingsCommand.report(context, hoursParameter, true, true))
+                                        .build(), "binary")
+                                .addParameter(hoursParameter)
+                                .executor(context -> TimingsCommand.report(context, hoursParameter, true, false))
+                                .build(), "file")
+                        .addParameter(hoursParameter)
+                        .executor(context -> TimingsCommand.report(context, hoursParameter, false, false))
                         .build(), "report", "paste")
                 .addChild(Command.builder()
                         .executor(context -> {
@@ -100,9 +116,149 @@ public final class TimingsCommand {
                             return CommandResult.success();
                         })
                         .build(), "verboff")
+                .addChild(Command.builder()
+                        .addParameter(groupParameter)
+                        .addParameter(rateParameter)
+                        .executor(context -> {
+                            final VanillaTimingsEngine manager = ((EngineDuck) Sponge.server()).timingsManager();
+
+                            if (!manager.environment.enabled()) {
+                                return CommandResult.error(Component.text("Please enable timings by typing /sponge timings on"));
+                            }
+                            final String group = context.requireOne(groupParameter);
+                            final int rate = context.requireOne(rateParameter);
+                            manager.environment.setSamplingRate(group, rate);
+                            manager.recheck();
+                            context.sendMessage(Identity.nil(), Component.text(rate <= 1 ? "Clocking every invocation of " + group
+                                    : "Clocking 1 in " + rate + " invocations of " + group));
+                            return CommandResult.success();
+                        })
+                        .build(), "sampling")
+                .addChild(Command.builder()
+                        .addParameter(groupParameter)
+                        .addParameter(enabledParameter)
+                        .executor(context -> {
+                            final VanillaTimingsEngine manager = ((EngineDuck) Sponge.server()).timingsManager();
+
+                            if (!manager.environment.enabled()) {
+                                return CommandResult.error(Component.text("Please enable timings by typing /sponge timings on"));
+                            }
+                            final String group = context.requireOne(groupParameter);
+                            final boolean enabled = context.requireOne(enabledParameter);
+                            manager.environment.setTrackAllocations(group, enabled);
+                            manager.recheck();
+                            context.sendMessage(Identity.nil(), Component.text((enabled ? "Tracking" : "Stopped tracking") + " allocations of " + group));
+                            return CommandResult.success();
+                        })
+                        .build(), "allocations")
+                .addChild(Command.builder()
+                        .addParameter(groupParameter)
+                        .addParameter(enabledParameter)
+                        .executor(context -> {
+                            final VanillaTimingsEngine manager = ((EngineDuck) Sponge.server()).timingsManager();
+
+                            if (!manager.environment.enabled()) {
+                                return CommandResult.error(Component.text("Please enable timings by typing /sponge timings on"));
+                            }
+                            final String group = context.requireOne(groupParameter);
+                            final boolean enabled = context.requireOne(enabledParameter);
+                            manager.environment.setTrackCpuTime(group, enabled);
+                            manager.recheck();
+                            context.sendMessage(Identity.nil(), Component.text((enabled ? "Tracking" : "Stopped tracking") + " CPU time of " + group));
+                            return CommandResult.success();
+                        })
+                        .build(), "cputime")
+                .addChild(Command.builder()
+                        .addParameter(countParameter)
+                        .executor(context -> {
+                            final VanillaTimingsEngine manager = ((EngineDuck) Sponge.server()).timingsManager();
+
+                            if (!manager.environment.enabled()) {
+                                return CommandResult.error(Component.text("Please enable timings by typing /sponge timings on"));
+                            }
+                            final SpikeRecorder spikes = manager.spikes;
+                            if (spikes.size() == 0) {
+                                context.sendMessage(Identity.nil(), Component.text("No tick took over " + manager.environment.spikeThreshold() + "ms yet"));
+                                return CommandResult.success();
+                            }
+                            final int[] worst = spikes.worst();
+                            final int count = Math.min(worst.length, Math.max(1, context.one(countParameter).orElse(5)));
+                            final long now = System.currentTimeMillis();
+                            for (int i = 0; i < count; i++) {
+                                context.sendMessage(Identity.nil(), TimingsCommand.spike(manager, worst[i], now));
+                            }
+                            return CommandResult.success();
+                        })
+                        .build(), "spikes")
+                .addChild(Command.builder()
+                        .executor(context -> {
+                            final VanillaTimingsEngine manager = ((EngineDuck) Sponge.server()).timingsManager();
+
+                            if (!manager.environment.enabled()) {
+                                return CommandResult.error(Component.text("Please enable timings by typing /sponge timings on"));
+                            }
+                            if (manager.environment.reportDirectory() == null) {
+                                return CommandResult.error(Component.text("No directory to write timings traces to"));
+                            }
+                            manager.traceAudiences.add(context.cause().audience());
+                            return CommandResult.success();
+                        })
+                        .build(), "trace")
                 .build();
     }
 
+    private static Component spike(final VanillaTimingsEngine manager, final int spike, final long now) {
+        final SpikeRecorder spikes = manager.spikes;
+        // The handlers the tick spent the most time in
+        final List<Integer> handlers = new ArrayList<>();
+        for (int row = 0; row < spikes.rows(spike); row++) {
+            if (spikes.owner(spike, row) == spikes.id(spike, row)) {
+                handlers.add(row);
+            }
+        }
+        handlers.sort((a, b) -> Long.compare(spikes.total(spike, b), spikes.total(spike, a)));
+        final StringBuilder message = new StringBuilder()
+                .append(TimingsCommand.millis(spikes.duration(spike))).append(" tick ")
+                .append((now - spikes.time(spike)) / 1000).append("s ago:");
+        for (int i = 0; i < Math.min(5, handlers.size()); i++) {
+            final int row = handlers.get(i);
+            final AbstractTiming timing = manager.timing(spikes.id(spike, row));
+            message.append(i == 0 ? " " : ", ")
+                    .append(timing == null ? "#" + spikes.id(spike, row) : timing.name)
+                    .append(' ').append(TimingsCommand.millis(spikes.total(spike, row)))
+                    .append(" (").append(spikes.count(spike, row)).append("x)");
+        }
+        return Component.text(message.toString());
+    }
+
+    private static String millis(final long nanos) {
+        return String.format("%.1fms", nanos / 1000000D);
+    }
+
     private TimingsCommand() {
     }
+
+    private static CommandResult report(final CommandContext context, final Parameter.Value<Integer> hoursParameter, final boolean file,
+            final boolean binary) {
+        final VanillaTimingsEngine manager = ((EngineDuck) Sponge.server()).timingsManager();
+        if (!manager.environment.enabled()) {
+            return CommandResult.error(Component.text("Please enable timings by typing /sponge timings on"));
+        }
+        final int hours = context.one(hoursParameter).orElse(0);
+        if (hours > 0) {
+            if (manager.historyStore == null) {
+                return CommandResult.error(Component.text("Timings history is not kept on disk"));
+            }
+            manager.reportWindow = hours * 3600L;
+        }
+        if (file) {
+            final Path directory = manager.environment.reportDirectory();
+            if (directory == null) {
+                return CommandResult.error(Component.text("No directory to write timings reports to"));
+            }
+            manager.reportSink = new FileReportSink(directory, manager.environment.reportsKept(), binary);
+        }
+        manager.audiences.add(context.cause().audience());
+        return CommandResult.success();
+    }
 }
@@ -0,0 +1,383 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.export;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads reports written by {@link BinaryReportWriter}, converting them to
+ * the JSON the timings viewer reads. Only needs Gson, so reports may be
+ * converted away from the server:
+ *
+ * <pre>java -cp timings.jar:gson.jar org.inspirenxe.timings.core.export.BinaryReportReader report.tmb.gz [report.json]</pre>
+ */
+public final class BinaryReportReader {
+
+    private final InputStream in;
+    private String[] strings;
+    private int tiers;
+
+    /**
+     * Creates a reader of a report, compressed or not.
+     *
+     * @param in The stream to read from
+     * @throws IOException If reading fails
+     */
+    public BinaryReportReader(final InputStream in) throws IOException {
+        final BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+        buffered.mark(2);
+        final boolean compressed = buffered.read() == 0x1F && buffered.read() == 0x8B;
+        buffered.reset();
+        this.in = compressed ? new BufferedInputStream(new GZIPInputStream(buffered), 1 << 16) : buffered;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BinaryReportReader <report> [json]");
+            System.exit(1);
+            return;
+        }
+        try (final InputStream in = Files.newInputStream(Paths.get(args[0]));
+                final OutputStream out = args.length > 1 ? Files.newOutputStream(Paths.get(args[1])) : System.out;
+                final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))) {
+            new BinaryReportReader(in).toJson(writer);
+        }
+    }
+
+    /**
+     * Converts the whole report to JSON.
+     *
+     * @param out The writer
+     * @throws IOException If the report is not a valid report, or either
+     *     reading or writing fails
+     */
+    public void toJson(final JsonWriter out) throws IOException {
+        if (this.readInt() != BinaryReportWriter.MAGIC) {
+            throw new IOException("Not a timings report");
+        }
+        final int version = this.readLength();
+        if (version != BinaryReportWriter.VERSION) {
+            throw new IOException("Unsupported timings report version " + version);
+        }
+        this.tiers = this.readLength();
+        this.strings = new String[this.readLength()];
+        for (int i = 0; i < this.strings.length; i++) {
+            final byte[] bytes = new byte[this.readLength()];
+            this.readFully(bytes);
+            this.strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        if (this.read() != BinaryReportWriter.OBJECT) {
+            throw new IOException("Report does not start with an object");
+        }
+        out.beginObject();
+        for (int entries = this.readLength(); entries > 0; entries--) {
+            out.name(this.strings[this.readLength()]);
+            this.readTree(out);
+        }
+        out.name("data").beginArray();
+        for (int records = this.readLength(); records > 0; records--) {
+            this.readRecord(out);
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    private void readTree(final JsonWriter out) throws IOException {
+        final int tag = this.read();
+        switch (tag) {
+            case BinaryReportWriter.NULL:
+                out.nullValue();
+                break;
+            case BinaryReportWriter.FALSE:
+                out.value(false);
+                break;
+            case BinaryReportWriter.TRUE:
+                out.value(true);
+                break;
+            case BinaryReportWriter.LONG:
+                out.value(this.readLong());
+                break;
+            case BinaryReportWriter.DOUBLE:
+                out.value(this.readDouble());
+                break;
+            case BinaryReportWriter.STRING:
+                out.value(this.strings[this.readLength()]);
+                break;
+            case BinaryReportWriter.ARRAY:
+                out.beginArray();
+                for (int size = this.readLength(); size > 0; size--) {
+                    this.readTree(out);
+                }
+                out.endArray();
+                break;
+            case BinaryReportWriter.OBJECT:
+                out.beginObject();
+                for (int size = this.readLength(); size > 0; size--) {
+                    out.name(this.strings[this.readLength()]);
+                    this.readTree(out);
+                }
+                out.endObject();
+                break;
+            default:
+                throw new IOException("Unknown tag " + tag);
+        }
+    }
+
+    private void readRecord(final JsonWriter out) throws IOException {
+        out.beginObject()
+                .name("s").value(this.readLong())
+                .name("e").value(this.readLong())
+                .name("tk").value(this.readLong())
+                .name("tm").value(this.readLong());
+        final Rows handlers = this.readRows();
+        final int[] childCounts = new int[handlers.size];
+        for (int row = 0; row < handlers.size; row++) {
+            childCounts[row] = this.readLength();
+        }
+        final Rows children = this.readRows();
+        out.name("h").beginArray();
+        int child = 0;
+        for (int row = 0; row < handlers.size; row++) {
+            handlers.writeJson(out, row, children, child, childCounts[row]);
+            child += childCounts[row];
+        }
+        out.endArray();
+        out.name("mp").beginArray();
+        for (int minutes = this.readLength(); minutes > 0; minutes--) {
+            out.beginArray()
+                    .value(this.readLong())
+                    .value(this.readDouble())
+                    .value(this.readDouble());
+            this.readRows().writeJson(out, 0, null, 0, 0);
+            out.beginArray();
+            for (int i = 0; i < 5; i++) {
+                out.value(this.readLong());
+            }
+            out.endArray()
+                    .value(this.readDouble())
+                    .value(this.readDouble())
+                    .value(this.readDouble())
+                    .beginArray()
+                    .value(this.readLong())
+                    .value(this.readLong())
+                    .value(this.readLong())
+                    .endArray()
+                    .endArray();
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    private Rows readRows() throws IOException {
+        final Rows rows = new Rows(this.readLength());
+        long id = 0;
+        for (int row = 0; row < rows.size; row++) {
+            id += this.readLong();
+            rows.ids[row] = id;
+        }
+        this.readColumn(rows.counts);
+        this.readColumn(rows.totalTimes);
+        this.readColumn(rows.lagCounts);
+        this.readColumn(rows.lagTotalTimes);
+        for (int row = 0; row < rows.size; row++) {
+            rows.flags[row] = this.read();
+        }
+        for (int row = 0; row < rows.size; row++) {
+            if ((rows.flags[row] & BinaryReportWriter.ROW_HISTOGRAM) != 0) {
+                rows.latencies[row] = this.readLongs(4);
+            }
+        }
+        for (int row = 0; row < rows.size; row++) {
+            if ((rows.flags[row] & BinaryReportWriter.ROW_TIERS) != 0) {
+                rows.tiers[row] = this.readLongs((this.tiers - 1) * 2);
+            }
+        }
+        for (int row = 0; row < rows.size; row++) {
+            if ((rows.flags[row] & BinaryReportWriter.ROW_ALLOCATIONS) != 0) {
+                rows.allocatedBytes[row] = this.readLong();
+            }
+        }
+        for (int row = 0; row < rows.size; row++) {
+            if ((rows.flags[row] & BinaryReportWriter.ROW_CPU_TIME) != 0) {
+                rows.cpuTimes[row] = this.readLong();
+            }
+        }
+        return rows;
+    }
+
+    private void readColumn(final long[] column) throws IOException {
+        for (int row = 0; row < column.length; row++) {
+            column[row] = this.readLong();
+        }
+    }
+
+    private long[] readLongs(final int count) throws IOException {
+        final long[] values = new long[count];
+        this.readColumn(values);
+        return values;
+    }
+
+    private int read() throws IOException {
+        final int value = this.in.read();
+        if (value < 0) {
+            throw new EOFException("Timings report ends early");
+        }
+        return value;
+    }
+
+    private void readFully(final byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            final int count = this.in.read(bytes, read, bytes.length - read);
+            if (count < 0) {
+                throw new EOFException("Timings report ends early");
+            }
+            read += count;
+        }
+    }
+
+    private int readInt() throws IOException {
+        return (this.read() << 24) | (this.read() << 16) | (this.read() << 8) | this.read();
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = this.read();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private int readLength() throws IOException {
+        return (int) this.readVarLong();
+    }
+
+    private long readLong() throws IOException {
+        final long value = this.readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private double readDouble() throws IOException {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | this.read();
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Decoded columns of rows, written as the arrays of TimingData.
+     */
+    private static final class Rows {
+
+        final int size;
+        final long[] ids;
+        final long[] counts;
+        final long[] totalTimes;
+        final long[] lagCounts;
+        final long[] lagTotalTimes;
+        final int[] flags;
+        final long[][] latencies;
+        final long[][] tiers;
+        final long[] allocatedBytes;
+        final long[] cpuTimes;
+
+        Rows(final int size) {
+            this.size = size;
+            this.ids = new long[size];
+            this.counts = new long[size];
+            this.totalTimes = new long[size];
+            this.lagCounts = new long[size];
+            this.lagTotalTimes = new long[size];
+            this.flags = new int[size];
+            this.latencies = new long[size][];
+            this.tiers = new long[size][];
+            this.allocatedBytes = new long[size];
+            this.cpuTimes = new long[size];
+        }
+
+        void writeJson(final JsonWriter out, final int row, @Nullable final Rows children, final int firstChild, final int childCount) throws IOException {
+            out.beginArray()
+                    .value(this.ids[row])
+                    .value(this.counts[row])
+                    .value(this.totalTimes[row])
+                    .value(this.lagCounts[row])
+                    .value(this.lagTotalTimes[row]);
+            final int flags = this.flags[row];
+            if (children != null && (childCount > 0 || flags != 0)) {
+                out.beginArray();
+                for (int child = firstChild; child < firstChild + childCount; child++) {
+                    children.writeJson(out, child, null, 0, 0);
+                }
+                out.endArray();
+            }
+            if (flags != 0) {
+                out.beginObject();
+                if ((flags & BinaryReportWriter.ROW_HISTOGRAM) != 0) {
+                    out.name("l").beginArray();
+                    for (final long latency : this.latencies[row]) {
+                        out.value(latency);
+                    }
+                    out.endArray();
+                }
+                if ((flags & BinaryReportWriter.ROW_TIERS) != 0) {
+                    out.name("t").beginArray();
+                    for (final long value : this.tiers[row]) {
+                        out.value(value);
+                    }
+                    out.endArray();
+                }
+                if ((flags & BinaryReportWriter.ROW_ALLOCATIONS) != 0) {
+                    out.name("a").value(this.allocatedBytes[row]);
+                }
+                if ((flags & BinaryReportWriter.ROW_CPU_TIME) != 0) {
+                    final long totalTime = this.totalTimes[row];
+                    out.name("c").value(this.cpuTimes[row]);
+                    out.name("b").value(totalTime == 0 ? 0D : Math.round(Math.max(0D, 1D - (double) this.cpuTimes[row] / totalTime) * 1000D) / 1000D);
+                }
+                out.endObject();
+            }
+            out.endArray();
+        }
+    }
+}
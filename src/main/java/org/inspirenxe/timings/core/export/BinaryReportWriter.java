@@ -0,0 +1,301 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.export;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.inspirenxe.timings.core.LatencyHistogram;
+import org.inspirenxe.timings.core.TimingData;
+import org.inspirenxe.timings.core.TimingDataStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a report in the binary format read by {@link BinaryReportReader}.
+ * <p>
+ * The report starts with its sections other than the history, as a tree
+ * whose strings are all kept once in a string table in front of it. Every
+ * history record follows, with the totals of its handlers in columns, so
+ * the same counter of every handler is written one after another. Lengths
+ * are varints and every other integer is a zigzag varint, ids are written
+ * as the difference to the previous row.
+ */
+public final class BinaryReportWriter implements Closeable {
+
+    static final int MAGIC = 0x544D4252;
+    static final int VERSION = 1;
+
+    static final int NULL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int LONG = 3;
+    static final int DOUBLE = 4;
+    static final int STRING = 5;
+    static final int ARRAY = 6;
+    static final int OBJECT = 7;
+
+    static final int ROW_HISTOGRAM = 1;
+    static final int ROW_TIERS = 1 << 1;
+    static final int ROW_ALLOCATIONS = 1 << 2;
+    static final int ROW_CPU_TIME = 1 << 3;
+
+    private final OutputStream out;
+    // Buffered here, most writes are single bytes of varints
+    private final byte[] buffer = new byte[1 << 16];
+    private int position;
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    public BinaryReportWriter(final OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts the report with the sections other than the history. Must be
+     * written first, followed by exactly as many records.
+     *
+     * @param header The sections
+     * @param records The amount of history records that follow
+     * @throws IOException If writing fails
+     */
+    public void writeHeader(final JsonObject header, final int records) throws IOException {
+        this.writeInt(BinaryReportWriter.MAGIC);
+        this.writeLength(BinaryReportWriter.VERSION);
+        this.writeLength(TimingDataStore.VIOLATION_TIERS);
+        final List<String> table = new ArrayList<>();
+        this.collect(header, table);
+        this.writeLength(table.size());
+        for (final String string : table) {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            this.writeLength(bytes.length);
+            this.write(bytes);
+        }
+        this.writeTree(header);
+        this.writeLength(records);
+    }
+
+    private void collect(final JsonElement element, final List<String> table) {
+        if (element.isJsonObject()) {
+            for (final Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                this.intern(entry.getKey(), table);
+                this.collect(entry.getValue(), table);
+            }
+        } else if (element.isJsonArray()) {
+            for (final JsonElement child : element.getAsJsonArray()) {
+                this.collect(child, table);
+            }
+        } else if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString()) {
+            this.intern(element.getAsString(), table);
+        }
+    }
+
+    private void intern(final String string, final List<String> table) {
+        if (!this.strings.containsKey(string)) {
+            this.strings.put(string, table.size());
+            table.add(string);
+        }
+    }
+
+    private void writeTree(final JsonElement element) throws IOException {
+        if (element.isJsonObject()) {
+            final JsonObject object = element.getAsJsonObject();
+            this.write(BinaryReportWriter.OBJECT);
+            this.writeLength(object.size());
+            for (final Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                this.writeLength(this.strings.get(entry.getKey()));
+                this.writeTree(entry.getValue());
+            }
+        } else if (element.isJsonArray()) {
+            final JsonArray array = element.getAsJsonArray();
+            this.write(BinaryReportWriter.ARRAY);
+            this.writeLength(array.size());
+            for (final JsonElement child : array) {
+                this.writeTree(child);
+            }
+        } else if (element.isJsonNull()) {
+            this.write(BinaryReportWriter.NULL);
+        } else {
+            final JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                this.write(primitive.getAsBoolean() ? BinaryReportWriter.TRUE : BinaryReportWriter.FALSE);
+            } else if (primitive.isString()) {
+                this.write(BinaryReportWriter.STRING);
+                this.writeLength(this.strings.get(primitive.getAsString()));
+            } else {
+                final Number number = primitive.getAsNumber();
+                if (number instanceof Double || number instanceof Float) {
+                    this.write(BinaryReportWriter.DOUBLE);
+                    this.writeDouble(number.doubleValue());
+                } else {
+                    this.write(BinaryReportWriter.LONG);
+                    this.writeLong(number.longValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the totals of rows as columns.
+     *
+     * @param rows The rows
+     * @throws IOException If writing fails
+     */
+    public void writeRows(final List<TimingData> rows) throws IOException {
+        final int size = rows.size();
+        this.writeLength(size);
+        int previous = 0;
+        for (int row = 0; row < size; row++) {
+            final int id = rows.get(row).id;
+            this.writeLong(id - previous);
+            previous = id;
+        }
+        for (int row = 0; row < size; row++) {
+            this.writeLong(rows.get(row).count());
+        }
+        for (int row = 0; row < size; row++) {
+            this.writeLong(rows.get(row).totalTime());
+        }
+        for (int row = 0; row < size; row++) {
+            this.writeLong(rows.get(row).lagCount());
+        }
+        for (int row = 0; row < size; row++) {
+            this.writeLong(rows.get(row).lagTotalTime());
+        }
+        final int[] flags = new int[size];
+        for (int row = 0; row < size; row++) {
+            final TimingData data = rows.get(row);
+            flags[row] = (data.hasHistogram() ? BinaryReportWriter.ROW_HISTOGRAM : 0)
+                    | (data.lagCount(1) != 0 ? BinaryReportWriter.ROW_TIERS : 0)
+                    | (data.allocatedBytes() != 0 ? BinaryReportWriter.ROW_ALLOCATIONS : 0)
+                    | (data.cpuTime() != 0 ? BinaryReportWriter.ROW_CPU_TIME : 0);
+            this.write(flags[row]);
+        }
+        // Only the rows flagged for a column have a value in it
+        for (int row = 0; row < size; row++) {
+            if ((flags[row] & BinaryReportWriter.ROW_HISTOGRAM) != 0) {
+                final LatencyHistogram histogram = rows.get(row).histogram();
+                this.writeLong(histogram.percentile(50));
+                this.writeLong(histogram.percentile(90));
+                this.writeLong(histogram.percentile(99));
+                this.writeLong(histogram.max());
+            }
+        }
+        for (int row = 0; row < size; row++) {
+            if ((flags[row] & BinaryReportWriter.ROW_TIERS) != 0) {
+                for (int tier = 1; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                    this.writeLong(rows.get(row).lagCount(tier));
+                    this.writeLong(rows.get(row).lagTotalTime(tier));
+                }
+            }
+        }
+        for (int row = 0; row < size; row++) {
+            if ((flags[row] & BinaryReportWriter.ROW_ALLOCATIONS) != 0) {
+                this.writeLong(rows.get(row).allocatedBytes());
+            }
+        }
+        for (int row = 0; row < size; row++) {
+            if ((flags[row] & BinaryReportWriter.ROW_CPU_TIME) != 0) {
+                this.writeLong(rows.get(row).cpuTime());
+            }
+        }
+    }
+
+    /**
+     * Writes a length or any other value that is never negative.
+     *
+     * @param value The value
+     * @throws IOException If writing fails
+     */
+    public void writeLength(final int value) throws IOException {
+        this.writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    public void writeLong(final long value) throws IOException {
+        this.writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeDouble(final double value) throws IOException {
+        final long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            this.write((int) (bits >>> shift));
+        }
+    }
+
+    private void writeInt(final int value) throws IOException {
+        this.write(value >>> 24);
+        this.write(value >>> 16);
+        this.write(value >>> 8);
+        this.write(value);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        if (this.buffer.length - this.position < 10) {
+            this.flush();
+        }
+        while ((value & ~0x7FL) != 0) {
+            this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.position++] = (byte) value;
+    }
+
+    private void write(final int b) throws IOException {
+        if (this.position == this.buffer.length) {
+            this.flush();
+        }
+        this.buffer[this.position++] = (byte) b;
+    }
+
+    private void write(final byte[] bytes) throws IOException {
+        if (bytes.length > this.buffer.length - this.position) {
+            this.flush();
+            if (bytes.length > this.buffer.length) {
+                this.out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    private void flush() throws IOException {
+        this.out.write(this.buffer, 0, this.position);
+        this.position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.flush();
+        this.out.close();
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.export;
+
+import org.inspirenxe.timings.core.SpikeRecorder;
+import org.inspirenxe.timings.core.util.LoadingIntTable;
+
+import java.util.Arrays;
+
+/**
+ * The time spent in every handler and in each of its children, the nested
+ * timing tree folded by parent and child.
+ * <p>
+ * Totals do not say which invocation of a child ran under which invocation
+ * of its parent, so a tree is unfolded from the graph by giving every child
+ * the share of its parent's time it took in total. A handler timed under
+ * several parents shows up under each of them, and children adding up to
+ * more than their parent, like handlers also added to their group, are
+ * scaled down to fit it. Children are laid out longest first, the order
+ * they ran in is not kept.
+ */
+public final class CallGraph {
+
+    /**
+     * The deepest a tree is unfolded, deeper children stay with their parent.
+     */
+    public static final int MAX_DEPTH = 64;
+
+    private final LoadingIntTable<Node> nodes = new LoadingIntTable<>(256, id -> new Node());
+
+    /**
+     * Builds the graph of a spike, the engine tick holding the whole tick.
+     *
+     * @param spikes The spikes
+     * @param spike The spike
+     * @param engine The id of the engine tick
+     * @return The graph
+     */
+    public static CallGraph of(final SpikeRecorder spikes, final int spike, final int engine) {
+        final CallGraph graph = new CallGraph();
+        graph.add(engine, engine, spikes.duration(spike), 1);
+        for (int row = 0; row < spikes.rows(spike); row++) {
+            graph.add(spikes.owner(spike, row), spikes.id(spike, row), spikes.total(spike, row), spikes.count(spike, row));
+        }
+        return graph;
+    }
+
+    /**
+     * Adds to the time spent in a handler, or in one of its children.
+     *
+     * @param owner The id of the handler
+     * @param id The id of the handler again, or of the child
+     * @param total The time in nanoseconds
+     * @param count The invocations
+     */
+    public void add(final int owner, final int id, final long total, final long count) {
+        final Node node = this.nodes.get(owner);
+        if (owner == id) {
+            node.total += total;
+            node.count += count;
+            return;
+        }
+        for (int child = 0; child < node.children; child++) {
+            if (node.ids[child] == id) {
+                node.totals[child] += total;
+                node.counts[child] += count;
+                return;
+            }
+        }
+        if (node.children == node.ids.length) {
+            final int capacity = Math.max(4, node.children * 2);
+            node.ids = Arrays.copyOf(node.ids, capacity);
+            node.totals = Arrays.copyOf(node.totals, capacity);
+            node.counts = Arrays.copyOf(node.counts, capacity);
+        }
+        node.ids[node.children] = id;
+        node.totals[node.children] = total;
+        node.counts[node.children] = count;
+        node.children++;
+    }
+
+    /**
+     * Gets the time spent in a handler.
+     *
+     * @param id The id of the handler
+     * @return The time in nanoseconds
+     */
+    public long total(final int id) {
+        final Node node = this.nodes.getIfPresent(id);
+        return node == null ? 0 : node.total;
+    }
+
+    public long count(final int id) {
+        final Node node = this.nodes.getIfPresent(id);
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * Walks the tree unfolded from a handler, parents before their children.
+     *
+     * @param root The id of the handler
+     * @param visitor The visitor
+     */
+    public void walk(final int root, final Visitor visitor) {
+        this.walk(root, this.total(root), this.count(root), 0, new int[CallGraph.MAX_DEPTH], 0, visitor);
+    }
+
+    private void walk(final int id, final long time, final long count, final long offset, final int[] path, final int depth,
+            final Visitor visitor) {
+        visitor.enter(id, depth, offset, time, count);
+        path[depth] = id;
+        long self = time;
+        final Node node = this.nodes.getIfPresent(id);
+        if (node != null && node.children != 0 && depth + 1 < CallGraph.MAX_DEPTH) {
+            long children = 0;
+            for (int child = 0; child < node.children; child++) {
+                children += node.totals[child];
+            }
+            final double share = (double) time / Math.max(1, Math.max(node.total, children));
+            final Integer[] order = new Integer[node.children];
+            for (int child = 0; child < order.length; child++) {
+                order[child] = child;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(node.totals[b], node.totals[a]));
+            long childOffset = offset;
+            for (final int child : order) {
+                final long childTime = (long) (node.totals[child] * share);
+                if (childTime <= 0 || CallGraph.contains(path, depth, node.ids[child])) {
+                    // Time spent in a handler up the tree stays with the parent
+                    continue;
+                }
+                this.walk(node.ids[child], childTime, node.counts[child], childOffset, path, depth + 1, visitor);
+                childOffset += childTime;
+                self -= childTime;
+            }
+        }
+        visitor.exit(id, depth, self);
+    }
+
+    private static boolean contains(final int[] path, final int depth, final int id) {
+        for (int i = 0; i <= depth; i++) {
+            if (path[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public interface Visitor {
+
+        /**
+         * Visits a handler of the tree, before its children.
+         *
+         * @param id The id of the handler
+         * @param depth The depth, 0 for the root
+         * @param offset Where the handler starts, in nanoseconds from the
+         *     start of the root
+         * @param time The time spent in the handler in nanoseconds
+         * @param count The invocations of the handler under its parent
+         */
+        void enter(int id, int depth, long offset, long time, long count);
+
+        /**
+         * Leaves a handler of the tree, after its children.
+         *
+         * @param id The id of the handler
+         * @param depth The depth, 0 for the root
+         * @param self The time spent in the handler outside of its children
+         *     in nanoseconds
+         */
+        void exit(int id, int depth, long self);
+    }
+
+    private static final class Node {
+
+        long total;
+        long count;
+        int children;
+        int[] ids = new int[0];
+        long[] totals = new long[0];
+        long[] counts = new long[0];
+    }
+}
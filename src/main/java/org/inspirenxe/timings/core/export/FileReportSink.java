@@ -0,0 +1,111 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.export;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.format.NamedTextColor;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes reports to a directory, keeping only the latest ones. A report is
+ * written next to its final name first, so the directory never holds a
+ * partial report under a report name.
+ */
+public final class FileReportSink implements ReportSink {
+
+    private static final String PREFIX = "timings-";
+    private static final String JSON_SUFFIX = ".json.gz";
+    private static final String BINARY_SUFFIX = ".tmb.gz";
+
+    private final Path directory;
+    private final int kept;
+    private final boolean binary;
+    private final Path file;
+    private final Path partial;
+
+    /**
+     * Creates a sink writing a new report to a directory.
+     *
+     * @param directory The directory
+     * @param kept The amount of reports to keep, older ones are deleted
+     * @param binary Whether to write the binary format instead of JSON
+     */
+    public FileReportSink(final Path directory, final int kept, final boolean binary) {
+        this.directory = directory;
+        this.kept = Math.max(1, kept);
+        this.binary = binary;
+        // Sorts by name in the order the reports were written
+        final String name = FileReportSink.PREFIX + new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss").format(new Date())
+                + (binary ? FileReportSink.BINARY_SUFFIX : FileReportSink.JSON_SUFFIX);
+        this.file = directory.resolve(name);
+        this.partial = directory.resolve(name + ".part");
+    }
+
+    @Override
+    public OutputStream open() throws IOException {
+        Files.createDirectories(this.directory);
+        return new BufferedOutputStream(Files.newOutputStream(this.partial));
+    }
+
+    @Override
+    public String complete() throws IOException {
+        Files.move(this.partial, this.file, StandardCopyOption.REPLACE_EXISTING);
+        final List<Path> reports = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, FileReportSink.PREFIX + "*{" + FileReportSink.JSON_SUFFIX + "," + FileReportSink.BINARY_SUFFIX + "}")) {
+            for (final Path report : stream) {
+                reports.add(report);
+            }
+        }
+        Collections.sort(reports);
+        for (int i = 0; i < reports.size() - this.kept; i++) {
+            Files.deleteIfExists(reports.get(i));
+        }
+        return this.file.toAbsolutePath().toString();
+    }
+
+    @Override
+    public boolean binary() {
+        return this.binary;
+    }
+
+    @Override
+    public Component describe(final String location) {
+        return Component.text().content("Timings Report written to ").color(NamedTextColor.GREEN)
+                .append(Component.text(location).clickEvent(ClickEvent.copyToClipboard(location))).build();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.export;
+
+import org.inspirenxe.timings.core.VanillaTimingsEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+
+import javax.annotation.Nullable;
+
+/**
+ * Posts reports to a timings viewer, which answers with a redirect to the
+ * uploaded report. Any other server accepting the report is answered with
+ * the URL it was posted to.
+ */
+public final class HttpReportSink implements ReportSink {
+
+    private final VanillaTimingsEngine manager;
+    private final String url;
+    @Nullable private HttpURLConnection connection;
+
+    public HttpReportSink(final VanillaTimingsEngine manager, final String url) {
+        this.manager = manager;
+        this.url = url;
+    }
+
+    @Override
+    public OutputStream open() throws IOException {
+        String hostname = "localhost";
+        if (!this.manager.environment.privacyMode()) {
+            try {
+                hostname = InetAddress.getLocalHost().getHostName();
+            } catch (final IOException e) {
+                this.manager.logger.warn("Could not get own server hostname when uploading timings - falling back to 'localhost'", e);
+            }
+        }
+        final HttpURLConnection con = (HttpURLConnection) new URL(this.url).openConnection();
+        con.setDoOutput(true);
+        final String name = this.manager.environment.privacyMode() ? "" : TimingsExport.serverName();
+        con.setRequestProperty("User-Agent", "Sponge/" + name + "/" + hostname);
+        con.setRequestMethod("POST");
+        con.setInstanceFollowRedirects(false);
+        // Otherwise the whole report is buffered to learn its length
+        con.setChunkedStreamingMode(0);
+        this.connection = con;
+        return con.getOutputStream();
+    }
+
+    @Override
+    public String complete() throws IOException {
+        final HttpURLConnection con = this.connection;
+        if (con == null) {
+            throw new IllegalStateException("Report was never opened");
+        }
+        final String response = this.response(con);
+        final int code = con.getResponseCode();
+        if (code == 302) {
+            if (response != null && !response.isEmpty()) {
+                this.manager.logger.info("Timing Response: " + response);
+            }
+            return con.getHeaderField("Location");
+        }
+        if (code / 100 != 2) {
+            if (response != null) {
+                this.manager.logger.fatal(response);
+            }
+            throw new IOException("Upload Error: " + code + ": " + con.getResponseMessage());
+        }
+        return this.url;
+    }
+
+    @Nullable
+    private String response(final HttpURLConnection con) throws IOException {
+        try (final InputStream is = con.getInputStream()) {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            final byte[] b = new byte[1024];
+            int bytesRead;
+            while ((bytesRead = is.read(b)) != -1) {
+                bos.write(b, 0, bytesRead);
+            }
+            return bos.toString();
+        } catch (final IOException ex) {
+            this.manager.logger.warn(con.getResponseMessage(), ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.export;
+
+import org.inspirenxe.timings.core.AbstractTiming;
+import org.inspirenxe.timings.core.LatencyHistogram;
+import org.inspirenxe.timings.core.TimingDataStore;
+import org.inspirenxe.timings.core.VanillaTimingsEngine;
+import org.inspirenxe.timings.core.util.LoadingIntTable;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Adds up the totals of every history interval since the engine was created
+ * and publishes them as a {@link MetricsSnapshot}.
+ * <p>
+ * Only the history thread may record, any thread may read the last
+ * published snapshot.
+ */
+public final class MetricsCollector {
+
+    private final VanillaTimingsEngine manager;
+    private final LoadingIntTable<Total> handlers = new LoadingIntTable<>(256, id -> new Total());
+    private long ticks;
+    private long tickTime;
+    private long lagTicks;
+    @Nullable private volatile MetricsSnapshot snapshot;
+
+    public MetricsCollector(final VanillaTimingsEngine manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Gets the last published snapshot.
+     *
+     * @return The snapshot, null before the first history interval ended
+     */
+    @Nullable
+    public MetricsSnapshot snapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * Adds the totals of a history interval and publishes a new snapshot.
+     *
+     * @param source The frozen totals of the interval
+     * @param tps5s The ticks per second over the last 5 seconds
+     * @param tps1m The ticks per second over the last minute
+     * @param overhead The overhead of timings, in percent of the tick time
+     * @param timingCost The cost of timing a section in nanoseconds, -1 if
+     *     not calibrated yet
+     */
+    public void record(final TimingDataStore source, final double tps5s, final double tps1m, final double overhead, final long timingCost) {
+        final AbstractTiming engine = this.manager.engineTickTiming;
+        final long[] tickQuantiles = new long[MetricsSnapshot.QUANTILES.length];
+        long tickMax = 0;
+        final int size = source.size();
+        for (int slot = 0; slot < size; slot++) {
+            final AbstractTiming owner = source.owner(slot);
+            if (owner == null || source.id(slot) != owner.id || source.count(slot) == 0) {
+                continue;
+            }
+            if (owner == engine) {
+                this.ticks += source.count(slot);
+                this.tickTime += source.totalTime(slot);
+                this.lagTicks += source.lagCount(slot);
+                final LatencyHistogram histogram = source.histogram(slot);
+                for (int i = 0; i < tickQuantiles.length; i++) {
+                    tickQuantiles[i] = histogram.percentile(MetricsSnapshot.QUANTILES[i]);
+                }
+                tickMax = histogram.max();
+            } else {
+                final Total total = this.handlers.get(owner.id);
+                total.timing = owner;
+                total.count += source.count(slot);
+                total.time += source.totalTime(slot);
+            }
+        }
+
+        final Total[] totals = new Total[this.handlers.size()];
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = this.handlers.valueAt(i);
+        }
+        Arrays.sort(totals, (a, b) -> Long.compare(b.time, a.time));
+        final int kept = Math.min(totals.length, Math.max(0, this.manager.environment.metricsHandlers()));
+        final String[] groups = new String[kept];
+        final String[] names = new String[kept];
+        final long[] counts = new long[kept];
+        final long[] times = new long[kept];
+        for (int i = 0; i < kept; i++) {
+            groups[i] = totals[i].timing.groupName;
+            names[i] = totals[i].timing.name;
+            counts[i] = totals[i].count;
+            times[i] = totals[i].time;
+        }
+        this.snapshot = new MetricsSnapshot(engine.name, System.currentTimeMillis(), tps5s, tps1m, this.ticks, this.tickTime, this.lagTicks, tickQuantiles, tickMax,
+                this.manager.gcMonitor.collectionTime(), overhead, Math.max(0, timingCost), groups, names, counts, times);
+    }
+
+    private static final class Total {
+
+        AbstractTiming timing;
+        long count;
+        long time;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.export;
+
+/**
+ * What the metrics endpoint serves, as of the last history interval.
+ * <p>
+ * Snapshots are never modified once published, so scrapes read them from
+ * any thread without locking and without touching the server thread.
+ */
+public final class MetricsSnapshot {
+
+    static final double[] QUANTILES = {50, 90, 99};
+
+    final String engine;
+    // Milliseconds since the epoch
+    final long time;
+    final double tps;
+    final double tpsMinute;
+    // Totals since the engine was created, in nanoseconds
+    final long ticks;
+    final long tickTime;
+    final long lagTicks;
+    // Over the last history interval, in nanoseconds
+    final long[] tickQuantiles;
+    final long tickMax;
+    // Milliseconds
+    final long gcTime;
+    // Percent of the tick time
+    final double overhead;
+    final long timingCost;
+    final String[] handlerGroups;
+    final String[] handlerNames;
+    final long[] handlerCounts;
+    final long[] handlerTimes;
+
+    MetricsSnapshot(final String engine, final long time, final double tps, final double tpsMinute, final long ticks, final long tickTime,
+            final long lagTicks, final long[] tickQuantiles, final long tickMax, final long gcTime, final double overhead, final long timingCost,
+            final String[] handlerGroups, final String[] handlerNames, final long[] handlerCounts, final long[] handlerTimes) {
+        this.engine = engine;
+        this.time = time;
+        this.tps = tps;
+        this.tpsMinute = tpsMinute;
+        this.ticks = ticks;
+        this.tickTime = tickTime;
+        this.lagTicks = lagTicks;
+        this.tickQuantiles = tickQuantiles;
+        this.tickMax = tickMax;
+        this.gcTime = gcTime;
+        this.overhead = overhead;
+        this.timingCost = timingCost;
+        this.handlerGroups = handlerGroups;
+        this.handlerNames = handlerNames;
+        this.handlerCounts = handlerCounts;
+        this.handlerTimes = handlerTimes;
+    }
+
+    /**
+     * Writes this snapshot in the Prometheus text exposition format.
+     *
+     * @param out The builder to write to
+     */
+    void write(final StringBuilder out) {
+        final String engine = "engine=\"" + MetricsSnapshot.escape(this.engine) + "\"";
+        MetricsSnapshot.type(out, "timings_tps", "gauge", "Ticks per second over the last 5 seconds and minute");
+        out.append("timings_tps{").append(engine).append(",window=\"5s\"} ").append(this.tps).append('\n');
+        out.append("timings_tps{").append(engine).append(",window=\"1m\"} ").append(this.tpsMinute).append('\n');
+        MetricsSnapshot.type(out, "timings_tick_duration_seconds", "summary", "Tick durations, quantiles over the last history interval");
+        for (int i = 0; i < MetricsSnapshot.QUANTILES.length; i++) {
+            out.append("timings_tick_duration_seconds{").append(engine).append(",quantile=\"").append(MetricsSnapshot.QUANTILES[i] / 100)
+                    .append("\"} ").append(this.tickQuantiles[i] / 1E9).append('\n');
+        }
+        out.append("timings_tick_duration_seconds_sum{").append(engine).append("} ").append(this.tickTime / 1E9).append('\n');
+        out.append("timings_tick_duration_seconds_count{").append(engine).append("} ").append(this.ticks).append('\n');
+        MetricsSnapshot.type(out, "timings_tick_duration_max_seconds", "gauge", "Longest tick of the last history interval");
+        out.append("timings_tick_duration_max_seconds{").append(engine).append("} ").append(this.tickMax / 1E9).append('\n');
+        MetricsSnapshot.type(out, "timings_lag_ticks_total", "counter", "Ticks over the tick budget");
+        out.append("timings_lag_ticks_total{").append(engine).append("} ").append(this.lagTicks).append('\n');
+        MetricsSnapshot.type(out, "timings_gc_pause_seconds_total", "counter", "Time pausing garbage collectors spent collecting");
+        out.append("timings_gc_pause_seconds_total{").append(engine).append("} ").append(this.gcTime / 1E3).append('\n');
+        MetricsSnapshot.type(out, "timings_overhead_ratio", "gauge", "Share of the tick time spent timing the server thread");
+        out.append("timings_overhead_ratio{").append(engine).append("} ").append(this.overhead / 100).append('\n');
+        MetricsSnapshot.type(out, "timings_timing_cost_seconds", "gauge", "Calibrated cost of timing one section");
+        out.append("timings_timing_cost_seconds{").append(engine).append("} ").append(this.timingCost / 1E9).append('\n');
+        MetricsSnapshot.type(out, "timings_handler_seconds_total", "counter", "Time spent in the handlers that took the most time");
+        for (int i = 0; i < this.handlerNames.length; i++) {
+            this.handler(out, "timings_handler_seconds_total", engine, i).append(this.handlerTimes[i] / 1E9).append('\n');
+        }
+        MetricsSnapshot.type(out, "timings_handler_invocations_total", "counter", "Invocations of the handlers that took the most time");
+        for (int i = 0; i < this.handlerNames.length; i++) {
+            this.handler(out, "timings_handler_invocations_total", engine, i).append(this.handlerCounts[i]).append('\n');
+        }
+    }
+
+    private StringBuilder handler(final StringBuilder out, final String metric, final String engine, final int handler) {
+        return out.append(metric).append('{').append(engine)
+                .append(",group=\"").append(MetricsSnapshot.escape(this.handlerGroups[handler]))
+                .append("\",handler=\"").append(MetricsSnapshot.escape(this.handlerNames[handler])).append("\"} ");
+    }
+
+    private static void type(final StringBuilder out, final String metric, final String type, final String help) {
+        out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.export;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.format.NamedTextColor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A destination of a single timings report. The report is compressed and
+ * streamed into {@link #open()} on the export thread, then the sink is
+ * completed once that stream was closed.
+ */
+public interface ReportSink {
+
+    /**
+     * Opens the stream the compressed report is written to. Only called
+     * once.
+     *
+     * @return The stream
+     * @throws IOException If the destination can not be opened
+     */
+    OutputStream open() throws IOException;
+
+    /**
+     * Completes the report after its stream was closed.
+     *
+     * @return Where the report can be found
+     * @throws IOException If the destination did not accept the report
+     */
+    String complete() throws IOException;
+
+    /**
+     * Gets whether the report is written in the binary format of
+     * {@link BinaryReportWriter} instead of JSON.
+     *
+     * @return Whether the report is binary
+     */
+    default boolean binary() {
+        return false;
+    }
+
+    /**
+     * Gets the message telling the requesters where the report can be found.
+     *
+     * @param location The location returned by {@link #complete()}
+     * @return The message
+     */
+    default Component describe(final String location) {
+        return Component.text().content("View Timings Report: ").color(NamedTextColor.GREEN)
+                .append(Component.text(location).clickEvent(ClickEvent.openUrl(location))).build();
+    }
+}
@@ -27,18 +27,23 @@ package org.inspirenxe.timings.core.export;
 import static org.spongepowered.api.Platform.Component.IMPLEMENTATION;
 
 import com.google.common.base.Joiner;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import net.kyori.adventure.audience.Audience;
+import com.google.gson.stream.JsonWriter;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
 import net.minecraft.server.MinecraftServer;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.inspirenxe.timings.core.AbstractTiming;
+import org.inspirenxe.timings.core.GcMonitor;
+import org.inspirenxe.timings.core.SpikeRecorder;
 import org.inspirenxe.timings.core.TimingIdentifier;
 import org.inspirenxe.timings.core.VanillaTimingsEngine;
+import org.inspirenxe.timings.core.history.HistoryIdMap;
 import org.inspirenxe.timings.core.history.HistoryRecord;
+import org.inspirenxe.timings.core.history.HistoryRollups;
 import org.inspirenxe.timings.core.util.JsonUtil;
 import org.inspirenxe.timings.core.util.JsonUtil.JsonObjectBuilder;
 import org.spongepowered.api.Platform;
@@ -46,23 +51,23 @@ import org.spongepowered.api.ResourceKey;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.block.entity.BlockEntityType;
 import org.spongepowered.api.entity.EntityType;
-import org.spongepowered.api.network.RconConnection;
 import org.spongepowered.api.registry.RegistryTypes;
 import org.spongepowered.plugin.PluginContainer;
 import org.spongepowered.plugin.metadata.model.PluginContributor;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
-import java.net.HttpURLConnection;
-import java.net.InetAddress;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
@@ -76,16 +81,19 @@ public final class TimingsExport extends Thread {
     private final TimingsReportListener listeners;
     private final JsonObject out;
     private final HistoryRecord[] history;
+    private final ReportSink sink;
     private static long lastReport = 0;
-    public TimingsExport(final VanillaTimingsEngine manager, final TimingsReportListener listeners, final JsonObject out, final HistoryRecord[] history) {
+    public TimingsExport(final VanillaTimingsEngine manager, final TimingsReportListener listeners, final JsonObject out, final HistoryRecord[] history,
+            final ReportSink sink) {
         super("Timings paste thread");
         this.manager = manager;
         this.listeners = listeners;
         this.out = out;
         this.history = history;
+        this.sink = sink;
     }
 
-    private static String serverName() {
+    static String serverName() {
         final PluginContainer implementation = Sponge.platform().container(IMPLEMENTATION);
         return implementation.metadata().name().get() + " " + implementation.metadata().version().toString();
     }
@@ -100,6 +108,11 @@ public final class TimingsExport extends Thread {
         final TimingsReportListener listeners = new TimingsReportListener(new ArrayList<>(manager.audiences));
 
         manager.audiences.clear();
+        // Reports of a window read the history kept on disk, from any run
+        final long window = manager.historyStore == null ? 0 : manager.reportWindow;
+        manager.reportWindow = 0;
+        final ReportSink sink = manager.reportSink != null ? manager.reportSink : new HttpReportSink(manager, manager.environment.reportUrl());
+        manager.reportSink = null;
         long now = System.currentTimeMillis();
         final long lastReportDiff = now - TimingsExport.lastReport;
         if (lastReportDiff < 60000) {
@@ -107,8 +120,9 @@ public final class TimingsExport extends Thread {
             listeners.done();
             return;
         }
+        final long start = window > 0 ? now - window * 1000 : manager.ticksTracker.timingStart;
         final long lastStartDiff = now - manager.ticksTracker.timingStart;
-        if (lastStartDiff < 180000) {
+        if (window == 0 && lastStartDiff < 180000) {
             listeners.send(Component.text("Please wait at least 3 minutes before generating a Timings report. Unlike Timings v1, v2 benefits from longer timings and is not as useful with short timings. (" + (int)((180000 - lastStartDiff) / 1000) + " seconds)", NamedTextColor.RED));
             listeners.done();
             return;
@@ -116,14 +130,50 @@ public final class TimingsExport extends Thread {
         listeners.send(Component.text("Preparing Timings Report...", NamedTextColor.GREEN));
         TimingsExport.lastReport = now;
 
+        // Only the current totals and spikes are handed over here, the report
+        // is assembled on the history thread once the totals were recorded
+        final SpikeRecorder spikes = manager.spikes.copy();
+        manager.withHistory(history -> {
+            try {
+                HistoryRecord[] records = history;
+                HistoryIdMap ids = null;
+                if (window > 0) {
+                    try {
+                        // Every record of this run was written to disk before
+                        // the history was handed over, except the one of the
+                        // interval in progress
+                        final HistoryIdMap windowIds = new HistoryIdMap(manager);
+                        final List<HistoryRecord> read = manager.historyStore.read(manager, windowIds, start / 1000, System.currentTimeMillis() / 1000);
+                        final HistoryRecord current = history[history.length - 1];
+                        windowIds.add(current);
+                        read.add(current);
+                        records = read.toArray(new HistoryRecord[0]);
+                        ids = windowIds;
+                    } catch (final IOException ex) {
+                        listeners.send(Component.text("Could not read the timings history, only reporting this run", NamedTextColor.RED));
+                        manager.logger.error("Could not read timings history", ex);
+                    }
+                }
+                final JsonObject header = TimingsExport.header(manager, records, ids, spikes, start);
+                new TimingsExport(manager, listeners, header, records, sink).start();
+            } catch (final RuntimeException ex) {
+                listeners.send(Component.text("Error preparing timings, check your logs for more information", NamedTextColor.RED));
+                manager.logger.error("Could not prepare timings report", ex);
+                listeners.done();
+            }
+        });
+    }
+
+    private static JsonObject header(final VanillaTimingsEngine manager, final HistoryRecord[] history, @Nullable final HistoryIdMap ids,
+            final SpikeRecorder spikes, final long start) {
         final Platform platform = Sponge.platform();
         final JsonObjectBuilder builder = JsonUtil.objectBuilder()
                 // Get some basic system details about the server
                 .add("version", platform.container(IMPLEMENTATION).metadata().version().toString())
                 .add("maxplayers", Sponge.server().maxPlayers())
-                .add("start", manager.ticksTracker.timingStart / 1000)
+                .add("start", start / 1000)
                 .add("end", System.currentTimeMillis() / 1000)
-                .add("sampletime", (System.currentTimeMillis() - manager.ticksTracker.timingStart) / 1000);
+                .add("sampletime", (System.currentTimeMillis() - start) / 1000);
         if (!manager.environment.privacyMode()) {
             builder.add("server", TimingsExport.serverName())
                     .add("motd", PlainTextComponentSerializer.plainText().serialize(Sponge.server().motd()))
@@ -134,7 +184,8 @@ public final class TimingsExport extends Thread {
         final Runtime runtime = Runtime.getRuntime();
         final RuntimeMXBean runtimeBean = ManagementFactory.getRuntimeMXBean();
         builder.add("system", JsonUtil.objectBuilder()
-                .add("timingcost", TimingsExport.getCost(manager))
+                .add("timingcost", manager.governor.timingCost())
+                .add("tickbudget", manager.environment.tickBudget(manager.engineTickTiming.name))
                 .add("name", System.getProperty("os.name"))
                 .add("version", System.getProperty("os.version"))
                 .add("jvmversion", System.getProperty("java.version"))
@@ -149,34 +200,42 @@ public final class TimingsExport extends Thread {
         final Set<BlockEntityType> blockEntityTypes = new HashSet<>();
         final Set<EntityType<?>> entityTypes = new HashSet<>();
 
-        final int size = manager.historicalReports.size();
-        final HistoryRecord[] history = new HistoryRecord[size + 1];
-        int i = 0;
-        for (final HistoryRecord record : manager.historicalReports) {
+        for (final HistoryRecord record : history) {
             blockEntityTypes.addAll(record.blockEntityTypes);
             entityTypes.addAll(record.entityTypes);
-            history[i++] = record;
         }
 
-        history[i] = new HistoryRecord(manager); // Current snapshot
-        blockEntityTypes.addAll(history[i].blockEntityTypes);
-        entityTypes.addAll(history[i].entityTypes);
-
         final JsonObjectBuilder timingsBuilder = JsonUtil.objectBuilder();
+        final JsonObjectBuilder samplingBuilder = JsonUtil.objectBuilder();
         for (final TimingIdentifier.TimingGroup group : manager.timingGroups.values()) {
             for (final AbstractTiming timing : group.timings) {
-                if (!timing.timed && !manager.isSpecialTiming(timing)) {
+                // Records read from disk name their own timings, of any run
+                if (ids != null ? !ids.handlers.containsKey(timing.id) : !timing.timed && !manager.isSpecialTiming(timing)) {
                     continue;
                 }
-                timingsBuilder.add(timing.id, JsonUtil.arrayOf(group.id, timing.name));
+                if (ids == null) {
+                    timingsBuilder.add(timing.id, JsonUtil.arrayOf(group.id, timing.name));
+                }
+                if (timing.samplingRate > 1) {
+                    // Totals of sampled handlers are extrapolated from 1 in rate invocations
+                    samplingBuilder.add(timing.id, timing.samplingRate);
+                }
+            }
+        }
+        if (ids != null) {
+            for (final Map.Entry<Integer, HistoryIdMap.Handler> entry : ids.handlers.entrySet()) {
+                timingsBuilder.add(entry.getKey(), JsonUtil.arrayOf(entry.getValue().group, entry.getValue().name));
             }
         }
 
         builder
                 .add("idmap", JsonUtil.objectBuilder()
-                .add("groups", JsonUtil.mapArrayToObject(manager.timingGroups.values(), (group) ->
+                .add("groups", ids != null
+                        ? JsonUtil.mapArrayToObject(ids.groups.entrySet(), (group) -> JsonUtil.singleObjectPair(group.getKey(), group.getValue()))
+                        : JsonUtil.mapArrayToObject(manager.timingGroups.values(), (group) ->
                         JsonUtil.singleObjectPair(group.id, group.name)))
                 .add("handlers", timingsBuilder)
+                .add("sampling", samplingBuilder)
 //                .add("worlds", JsonUtil.mapArrayToObject(HistoryRecord.worldMap.entrySet(), (entry) ->
 //                        JsonUtil.singleObjectPair(entry.getValue(), entry.getKey())))
                 .add("blockentity", JsonUtil.mapArrayToObject(blockEntityTypes, (blockEntityType) ->
@@ -193,6 +252,15 @@ public final class TimingsExport extends Thread {
                 )
         );
 
+        // Timing trees of the worst ticks, as [owner, id, count, total] rows
+        builder.add("spikes", TimingsExport.spikes(spikes));
+
+        // Last stop the world collections, as [start in milliseconds, duration, collector, cause]
+        builder.add("gcpauses", TimingsExport.gcPauses(manager));
+
+        // Engine tick and top handler aggregates of the last hours, days and weeks
+        builder.add("rollups", TimingsExport.rollups(manager));
+
         // Information about loaded plugins
 
         builder.add("plugins", JsonUtil.mapArrayToObject(Sponge.pluginManager().plugins(), (plugin) -> {
@@ -213,42 +281,66 @@ public final class TimingsExport extends Thread {
 //                    .add("sponge", TimingsExport.serializeConfigNode(SpongeConfigs.getCommon().getNode()))
 //                );
 
-        new TimingsExport(manager, listeners, builder.build(), history).start();
+        return builder.build();
+    }
+
+    private static JsonArray spikes(final SpikeRecorder spikes) {
+        final JsonArray result = new JsonArray();
+        for (final int spike : spikes.worst()) {
+            final JsonArray rows = new JsonArray();
+            for (int row = 0; row < spikes.rows(spike); row++) {
+                rows.add(JsonUtil.arrayOf(spikes.owner(spike, row), spikes.id(spike, row), spikes.count(spike, row), spikes.total(spike, row)));
+            }
+            result.add(JsonUtil.arrayOf(spikes.time(spike) / 1000, spikes.duration(spike), spikes.totalRows(spike), rows));
+        }
+        return result;
     }
 
-    static long getCost(final VanillaTimingsEngine manager) {
-        // Benchmark the users System.nanotime() for cost basis
-        int passes = 200;
-        final AbstractTiming SAMPLER1 = manager.of("Timings Sampler 1");
-        final AbstractTiming SAMPLER2 = manager.of("Timings Sampler 2");
-        final AbstractTiming SAMPLER3 = manager.of("Timings Sampler 3");
-        final AbstractTiming SAMPLER4 = manager.of("Timings Sampler 4");
-        final AbstractTiming SAMPLER5 = manager.of("Timings Sampler 5");
-        final AbstractTiming SAMPLER6 = manager.of("Timings Sampler 6");
-
-        final long start = System.nanoTime();
-        for (int i = 0; i < passes; i++) {
-            SAMPLER1.start();
-            SAMPLER2.start();
-            SAMPLER3.start();
-            SAMPLER3.start();
-            SAMPLER4.start();
-            SAMPLER5.start();
-            SAMPLER6.start();
-            SAMPLER6.start();
-            SAMPLER5.start();
-            SAMPLER4.start();
-            SAMPLER2.start();
-            SAMPLER1.start();
+    private static JsonArray gcPauses(final VanillaTimingsEngine manager) {
+        final GcMonitor monitor = manager.gcMonitor;
+        final JsonArray result = new JsonArray();
+        // Hold the monitor so pauses ending meanwhile do not shift the indices
+        synchronized (monitor) {
+            for (int pause = 0; pause < monitor.size(); pause++) {
+                result.add(JsonUtil.arrayOf(monitor.time(pause), monitor.duration(pause), monitor.collector(pause), monitor.cause(pause)));
+            }
+        }
+        return result;
+    }
+
+    private static JsonObject rollups(final VanillaTimingsEngine manager) {
+        final JsonObjectBuilder result = JsonUtil.objectBuilder();
+        for (int i = 0; i < manager.rollups.levels(); i++) {
+            final HistoryRollups.Level level = manager.rollups.level(i);
+            final JsonArray buckets = new JsonArray();
+            for (int bucket = 0; bucket < level.size(); bucket++) {
+                final JsonArray handlers = new JsonArray();
+                for (int handler = 0; handler < level.handlers(bucket); handler++) {
+                    handlers.add(JsonUtil.arrayOf(
+                            level.handlerId(bucket, handler),
+                            level.handlerCount(bucket, handler),
+                            level.handlerTotal(bucket, handler),
+                            level.handlerMax(bucket, handler),
+                            level.handlerPercentile(bucket, handler, 0),
+                            level.handlerPercentile(bucket, handler, 1)
+                    ));
+                }
+                buckets.add(JsonUtil.arrayOf(
+                        level.time(bucket),
+                        level.ticks(bucket),
+                        level.tickTotal(bucket),
+                        level.tickMin(bucket),
+                        level.tickMax(bucket),
+                        level.tickPercentile(bucket, 0),
+                        level.tickPercentile(bucket, 1),
+                        level.tickPercentile(bucket, 2),
+                        level.lagTicks(bucket),
+                        handlers
+                ));
+            }
+            result.add(String.valueOf(level.duration()), buckets);
         }
-        final long timingsCost = (System.nanoTime() - start) / passes / 6;
-        SAMPLER1.reset(true);
-        SAMPLER2.reset(true);
-        SAMPLER3.reset(true);
-        SAMPLER4.reset(true);
-        SAMPLER5.reset(true);
-        SAMPLER6.reset(true);
-        return timingsCost;
+        return result.build();
     }
 
 //    private static JsonElement serializeConfigNode(final ConfigurationNode node) {
@@ -273,103 +365,49 @@ public final class TimingsExport extends Thread {
 //        return JsonUtil.toJsonElement(node.raw());
 //    }
 
-    @Override
-    public synchronized void start() {
-        boolean containsRconSource = false;
-        for (final Audience receiver : this.listeners.channel().audiences()) {
-            if (receiver instanceof RconConnection) {
-                containsRconSource = true;
-                break;
-            }
-        }
-        if (containsRconSource) {
-            this.listeners.send(Component.text("Warning: Timings report done over RCON will cause lag spikes.", NamedTextColor.RED));
-            this.listeners.send(Component.text("You should use ", NamedTextColor.RED).append(Component.text("/sponge timings report",
-                    NamedTextColor.YELLOW)).append(Component.text(" in game or console.", NamedTextColor.RED)));
-            this.run();
-        } else {
-            super.start();
-        }
-    }
-
     @Override
     public void run() {
-        this.out.add("data", JsonUtil.mapArray(this.history, HistoryRecord::asJson));
+        final List<HistoryRecord> history = Arrays.asList(this.history);
 
-        String response = null;
-        String timingsURL = null;
+        String location = null;
         try {
-            String hostname = "localhost";
-            if (!this.manager.environment.privacyMode()) {
-                try {
-                    hostname = InetAddress.getLocalHost().getHostName();
-                } catch (final IOException e) {
-                    this.manager.logger.warn("Could not get own server hostname when uploading timings - falling back to 'localhost'", e);
-                }
-            }
-            final HttpURLConnection con = (HttpURLConnection) new URL("https://timings.aikar.co/post").openConnection();
-            con.setDoOutput(true);
-            final String name = this.manager.environment.privacyMode() ? "" : TimingsExport.serverName();
-            con.setRequestProperty("User-Agent", "Sponge/" + name + "/" + hostname);
-            con.setRequestMethod("POST");
-            con.setInstanceFollowRedirects(false);
-
-            final OutputStream request = new GZIPOutputStream(con.getOutputStream()) {
+            final OutputStream request = new GZIPOutputStream(this.sink.open()) {
                 {
                     this.def.setLevel(7);
                 }
             };
 
-            this.manager.logger.error(JsonUtil.toString(this.out));
-            request.write(JsonUtil.toString(this.out).getBytes(StandardCharsets.UTF_8));
-            request.close();
-
-            response = this.response(con);
-
-            if (con.getResponseCode() != 302) {
-                this.listeners.send(Component.text("Upload Error: " + con.getResponseCode() + ": " + con.getResponseMessage(), NamedTextColor.RED));
-                this.listeners.send(Component.text("Check your logs for more information", NamedTextColor.RED));
-                if (response != null) {
-                    this.manager.logger.fatal(response);
+            // Streamed straight into the sink, history records are only
+            // decoded one at a time
+            if (this.sink.binary()) {
+                try (final BinaryReportWriter writer = new BinaryReportWriter(request)) {
+                    writer.writeHeader(this.out, history.size());
+                    for (final HistoryRecord record : history) {
+                        record.writeBinary(writer);
+                    }
+                }
+            } else {
+                try (final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(request, StandardCharsets.UTF_8)))) {
+                    writer.beginObject();
+                    for (final Map.Entry<String, JsonElement> entry : this.out.entrySet()) {
+                        JsonUtil.write(entry.getValue(), writer.name(entry.getKey()));
+                    }
+                    writer.name("data").beginArray();
+                    for (final HistoryRecord record : history) {
+                        record.writeJson(writer);
+                    }
+                    writer.endArray();
+                    writer.endObject();
                 }
-                return;
             }
 
-            timingsURL = con.getHeaderField("Location");
-            this.listeners.send(Component.text().content("View Timings Report: ").color(NamedTextColor.GREEN).append(Component.text(timingsURL).clickEvent(ClickEvent.openUrl(timingsURL))).build());
-
-            if (response != null && !response.isEmpty()) {
-                this.manager.logger.info("Timing Response: " + response);
-            }
+            location = this.sink.complete();
+            this.listeners.send(this.sink.describe(location));
         } catch (final IOException ex) {
-            this.listeners.send(Component.text("Error uploading timings, check your logs for more information", NamedTextColor.RED));
-            if (response != null) {
-                this.manager.logger.fatal(response);
-            }
-            this.manager.logger.fatal("Could not paste timings", ex);
+            this.listeners.send(Component.text("Error exporting timings, check your logs for more information", NamedTextColor.RED));
+            this.manager.logger.fatal("Could not export timings", ex);
         } finally {
-            this.listeners.done(timingsURL);
-        }
-    }
-
-    private String response(final HttpURLConnection con) throws IOException {
-        try (final InputStream is = con.getInputStream()) {
-            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-            final byte[] b = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = is.read(b)) != -1) {
-                bos.write(b, 0, bytesRead);
-            }
-            try {
-                return bos.toString();
-            } finally {
-                bos.close();
-            }
-        } catch (final IOException ex) {
-            this.listeners.send(Component.text("Error uploading timings, check your logs for more information", NamedTextColor.RED));
-            this.manager.logger.warn(con.getResponseMessage(), ex);
-            return null;
+            this.listeners.done(location);
         }
     }
 }
\ No newline at end of file
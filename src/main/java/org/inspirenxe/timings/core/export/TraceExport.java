@@ -0,0 +1,293 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.export;
+
+import com.google.gson.stream.JsonWriter;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.inspirenxe.timings.core.AbstractTiming;
+import org.inspirenxe.timings.core.SpikeRecorder;
+import org.inspirenxe.timings.core.TimingIdentifier;
+import org.inspirenxe.timings.core.VanillaTimingsEngine;
+import org.inspirenxe.timings.core.history.HistoryRecord;
+import org.inspirenxe.timings.core.history.TickHistory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the nested timing tree to files standard tools open, to look into
+ * lag without the timings viewer. A Chrome trace holds the last ticks and
+ * the tree of every spike, for chrome://tracing or Perfetto, and collapsed
+ * stacks of the current run are for flame graph tools like flamegraph.pl or
+ * speedscope.
+ * <p>
+ * Ticks are laid out at the time they ran, from the first tick or spike
+ * kept, whose time since the epoch in milliseconds is the start time of the
+ * trace. Spikes are laid out at the time they were captured, their children
+ * as {@link CallGraph} unfolds them.
+ */
+public final class TraceExport {
+
+    private static final String PREFIX = "trace-";
+    private static final int TICKS = 1;
+    private static final int SPIKES = 2;
+
+    /**
+     * Writes a trace for every audience that asked for one since the last
+     * tick. Must be called from the server thread, at the end of a tick.
+     *
+     * @param manager The engine
+     */
+    public static void trace(final VanillaTimingsEngine manager) {
+        if (manager.traceAudiences.isEmpty()) {
+            return;
+        }
+        final TimingsReportListener listeners = new TimingsReportListener(new ArrayList<>(manager.traceAudiences));
+        manager.traceAudiences.clear();
+        final Path directory = manager.environment.reportDirectory();
+        if (directory == null) {
+            listeners.send(Component.text("No directory to write timings traces to", NamedTextColor.RED));
+            listeners.done();
+            return;
+        }
+        final TickHistory ticks = manager.tickHistory.copy();
+        final SpikeRecorder spikes = manager.spikes.copy();
+        // Ticks are timed in nano time, traces are laid out on the wall clock
+        final long wallOffset = System.currentTimeMillis() * 1000000L - System.nanoTime();
+        final String name = TraceExport.PREFIX + new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss").format(new Date());
+        manager.withHistory(history -> {
+            try {
+                final Map<Integer, AbstractTiming> timings = TraceExport.timings(manager);
+                final Path trace = TraceExport.write(directory, name + ".json",
+                        out -> TraceExport.writeTrace(manager, timings, ticks, spikes, wallOffset, new JsonWriter(out)));
+                final Path stacks = TraceExport.write(directory, name + ".collapsed.txt",
+                        out -> TraceExport.writeStacks(manager, timings, history, out));
+                listeners.send(TraceExport.describe("Trace written to ", trace));
+                listeners.send(TraceExport.describe("Flame graph stacks written to ", stacks));
+            } catch (final IOException | RuntimeException ex) {
+                listeners.send(Component.text("Error writing timings trace, check your logs for more information", NamedTextColor.RED));
+                manager.logger.error("Could not write timings trace", ex);
+            } finally {
+                listeners.done();
+            }
+        });
+    }
+
+    /**
+     * Writes the last ticks and the spikes kept in the Chrome trace event
+     * format.
+     *
+     * @param manager The engine
+     * @param timings The timings by id
+     * @param ticks The ticks
+     * @param spikes The spikes
+     * @param wallOffset What to add to a nano time to get the nanoseconds
+     *     since the epoch
+     * @param out The writer
+     * @throws IOException If writing fails
+     */
+    public static void writeTrace(final VanillaTimingsEngine manager, final Map<Integer, AbstractTiming> timings, final TickHistory ticks,
+            final SpikeRecorder spikes, final long wallOffset, final JsonWriter out) throws IOException {
+        // Laid out from the first tick or spike kept, nanoseconds since the
+        // epoch would not fit a double to the microsecond
+        long base = ticks.size() == 0 ? Long.MAX_VALUE : ticks.startTime(0) + wallOffset;
+        for (int spike = 0; spike < spikes.size(); spike++) {
+            base = Math.min(base, spikes.time(spike) * 1000000L - spikes.duration(spike));
+        }
+        final long origin = base == Long.MAX_VALUE ? 0 : base;
+        out.beginObject();
+        out.name("traceEvents").beginArray();
+        TraceExport.metadata(out, "process_name", TraceExport.TICKS, manager.engineTickTiming.name);
+        TraceExport.metadata(out, "thread_name", TraceExport.TICKS, "Ticks");
+        TraceExport.metadata(out, "thread_name", TraceExport.SPIKES, "Spikes");
+        for (int tick = 0; tick < ticks.size(); tick++) {
+            TraceExport.event(out, "Tick", "tick", TraceExport.TICKS, (ticks.startTime(tick) + wallOffset - origin) / 1000D, ticks.duration(tick) / 1000D);
+            if (ticks.violated(tick) && !ticks.gcExplained(tick)) {
+                out.name("cname").value("terrible");
+            }
+            out.name("args").beginObject()
+                    .name("severity").value(ticks.severity(tick))
+                    .name("gcPause").value(ticks.gcTime(tick) / 1000D)
+                    .name("overhead").value(ticks.overhead(tick) / 1000D)
+                    .endObject();
+            out.endObject();
+        }
+        final int engine = manager.engineTickTiming.id;
+        for (int spike = 0; spike < spikes.size(); spike++) {
+            final long start = spikes.time(spike) * 1000000L - spikes.duration(spike) - origin;
+            CallGraph.of(spikes, spike, engine).walk(engine, new CallGraph.Visitor() {
+                @Override
+                public void enter(final int id, final int depth, final long offset, final long time, final long count) {
+                    try {
+                        final AbstractTiming timing = timings.get(id);
+                        TraceExport.event(out, timing == null ? "#" + id : timing.name, timing == null ? "" : timing.groupName,
+                                TraceExport.SPIKES, (start + offset) / 1000D, time / 1000D);
+                        out.name("args").beginObject().name("count").value(count).endObject();
+                        out.endObject();
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void exit(final int id, final int depth, final long self) {
+                }
+            });
+        }
+        out.endArray();
+        out.name("displayTimeUnit").value("ms");
+        out.name("otherData").beginObject()
+                .name("engine").value(manager.engineTickTiming.name)
+                .name("startTime").value(origin / 1000000L)
+                .endObject();
+        out.endObject();
+        out.flush();
+    }
+
+    /**
+     * Writes the time spent in every stack of handlers of the current run in
+     * the collapsed stack format, one stack per line followed by the time
+     * spent in its last handler outside of its children in microseconds.
+     *
+     * @param manager The engine
+     * @param timings The timings by id
+     * @param history The records of the current run
+     * @param out The writer
+     * @throws IOException If writing fails
+     */
+    public static void writeStacks(final VanillaTimingsEngine manager, final Map<Integer, AbstractTiming> timings, final HistoryRecord[] history,
+            final Writer out) throws IOException {
+        final CallGraph graph = new CallGraph();
+        for (final HistoryRecord record : history) {
+            record.addTo(graph);
+        }
+        final String[] stack = new String[CallGraph.MAX_DEPTH];
+        final StringBuilder line = new StringBuilder();
+        graph.walk(manager.engineTickTiming.id, new CallGraph.Visitor() {
+            @Override
+            public void enter(final int id, final int depth, final long offset, final long time, final long count) {
+                final AbstractTiming timing = timings.get(id);
+                // Frames are separated by semicolons, the time by the last space
+                stack[depth] = (timing == null ? "#" + id : timing.name).replace(';', ',').replace('\n', ' ').replace('\r', ' ');
+            }
+
+            @Override
+            public void exit(final int id, final int depth, final long self) {
+                if (self < 1000) {
+                    return;
+                }
+                line.setLength(0);
+                for (int i = 0; i <= depth; i++) {
+                    line.append(i == 0 ? "" : ";").append(stack[i]);
+                }
+                line.append(' ').append(self / 1000).append('\n');
+                try {
+                    out.write(line.toString());
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        out.flush();
+    }
+
+    /**
+     * Gets every timing of an engine by its id.
+     *
+     * @param manager The engine
+     * @return The timings
+     */
+    public static Map<Integer, AbstractTiming> timings(final VanillaTimingsEngine manager) {
+        final Map<Integer, AbstractTiming> timings = new HashMap<>();
+        for (final TimingIdentifier.TimingGroup group : manager.timingGroups.values()) {
+            for (final AbstractTiming timing : group.timings) {
+                timings.put(timing.id, timing);
+            }
+        }
+        return timings;
+    }
+
+    private static void metadata(final JsonWriter out, final String name, final int thread, final String value) throws IOException {
+        out.beginObject()
+                .name("name").value(name)
+                .name("ph").value("M")
+                .name("pid").value(1)
+                .name("tid").value(thread)
+                .name("args").beginObject().name("name").value(value).endObject()
+                .endObject();
+    }
+
+    // Leaves the event open for its arguments
+    private static void event(final JsonWriter out, final String name, final String category, final int thread, final double start,
+            final double duration) throws IOException {
+        out.beginObject()
+                .name("name").value(name)
+                .name("cat").value(category)
+                .name("ph").value("X")
+                .name("ts").value(start)
+                .name("dur").value(duration)
+                .name("pid").value(1)
+                .name("tid").value(thread);
+    }
+
+    private static Path write(final Path directory, final String name, final Output output) throws IOException {
+        Files.createDirectories(directory);
+        final Path file = directory.resolve(name);
+        final Path partial = directory.resolve(name + ".part");
+        try (final Writer out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+            output.write(out);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+        return file.toAbsolutePath();
+    }
+
+    private static Component describe(final String message, final Path file) {
+        final String location = file.toString();
+        return Component.text().content(message).color(NamedTextColor.GREEN)
+                .append(Component.text(location).clickEvent(ClickEvent.copyToClipboard(location))).build();
+    }
+
+    private interface Output {
+
+        void write(Writer out) throws IOException;
+    }
+
+    private TraceExport() {
+    }
+}
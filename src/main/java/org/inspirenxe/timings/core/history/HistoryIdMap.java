@@ -0,0 +1,139 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.history;
+
+import org.inspirenxe.timings.core.AbstractTiming;
+import org.inspirenxe.timings.core.TimingIdentifier;
+import org.inspirenxe.timings.core.VanillaTimingsEngine;
+import org.inspirenxe.timings.core.export.TraceExport;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The names of the timings in history records read back from disk.
+ * <p>
+ * Timing ids are only unique within a run, so every written id is replaced
+ * by the one of the timing with the same group and name in this run, or by
+ * a new id above every id of this run if there is none. Records of any run
+ * may then be reported together.
+ */
+public final class HistoryIdMap {
+
+    /**
+     * The names of the groups by id.
+     */
+    public final Map<Integer, String> groups = new LinkedHashMap<>();
+    /**
+     * The timings by id.
+     */
+    public final Map<Integer, Handler> handlers = new LinkedHashMap<>();
+    private final Map<String, Integer> groupIds = new HashMap<>();
+    private final Map<String, Map<String, Integer>> handlerIds = new HashMap<>();
+    private final Map<String, Integer> currentGroupIds = new HashMap<>();
+    private final Map<String, Map<String, Integer>> currentIds = new HashMap<>();
+    private int nextGroupId = 1;
+    private int nextId = 1;
+
+    /**
+     * Creates an empty map, reusing the ids of the timings of an engine.
+     *
+     * @param manager The engine
+     */
+    public HistoryIdMap(final VanillaTimingsEngine manager) {
+        for (final TimingIdentifier.TimingGroup group : manager.timingGroups.values()) {
+            this.currentGroupIds.put(group.name, group.id);
+            this.nextGroupId = Math.max(this.nextGroupId, group.id + 1);
+            final Map<String, Integer> ids = new HashMap<>();
+            for (final AbstractTiming timing : group.timings) {
+                ids.put(timing.name, timing.id);
+                this.nextId = Math.max(this.nextId, timing.id + 1);
+            }
+            this.currentIds.put(group.name, ids);
+        }
+    }
+
+    /**
+     * Names the timings of a record of this run, which keep their ids.
+     *
+     * @param record The record
+     */
+    public void add(final HistoryRecord record) {
+        final Map<Integer, AbstractTiming> timings = TraceExport.timings(record.manager);
+        for (final int id : record.ids()) {
+            final AbstractTiming timing = timings.get(id);
+            if (timing != null) {
+                this.id(timing.groupName, timing.name);
+            }
+        }
+    }
+
+    /**
+     * Gets the id a timing is reported with.
+     *
+     * @param group The name of the group of the timing
+     * @param name The name of the timing
+     * @return The id
+     */
+    int id(final String group, final String name) {
+        final Map<String, Integer> ids = this.handlerIds.computeIfAbsent(group, key -> new HashMap<>());
+        Integer id = ids.get(name);
+        if (id == null) {
+            final Map<String, Integer> current = this.currentIds.get(group);
+            id = current == null ? null : current.get(name);
+            if (id == null) {
+                id = this.nextId++;
+            }
+            ids.put(name, id);
+            this.handlers.put(id, new Handler(this.groupId(group), name));
+        }
+        return id;
+    }
+
+    private int groupId(final String group) {
+        Integer id = this.groupIds.get(group);
+        if (id == null) {
+            id = this.currentGroupIds.get(group);
+            if (id == null) {
+                id = this.nextGroupId++;
+            }
+            this.groupIds.put(group, id);
+            this.groups.put(id, group);
+        }
+        return id;
+    }
+
+    public static final class Handler {
+
+        public final int group;
+        public final String name;
+
+        Handler(final int group, final String name) {
+            this.group = group;
+            this.name = name;
+        }
+    }
+}
@@ -24,15 +24,25 @@
  */
 package org.inspirenxe.timings.core.history;
 
-import com.google.gson.JsonElement;
-import org.inspirenxe.timings.core.AbstractTiming;
+import com.google.gson.stream.JsonWriter;
+import org.inspirenxe.timings.core.TimingData;
+import org.inspirenxe.timings.core.TimingDataStore;
 import org.inspirenxe.timings.core.VanillaTimingsEngine;
-import org.inspirenxe.timings.core.util.JsonUtil;
+import org.inspirenxe.timings.core.export.BinaryReportWriter;
+import org.inspirenxe.timings.core.export.CallGraph;
 import org.spongepowered.api.block.entity.BlockEntityType;
 import org.spongepowered.api.entity.EntityType;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+import javax.annotation.Nullable;
 
 public final class HistoryRecord {
 
@@ -42,45 +52,230 @@ public final class HistoryRecord {
     public final long totalTicks;
     public final long totalTime;
     public final MinuteReport[] minuteReports;
-    public final TimingHistoryEntry[] entries;
+    private final HistorySnapshot snapshot;
 
     public final Set<EntityType<?>> entityTypes;
     public final Set<BlockEntityType> blockEntityTypes;
-    public HistoryRecord(final VanillaTimingsEngine manager) {
+    /**
+     * Creates a record of the totals held by a store. Only the store is read,
+     * so a record of a frozen store may be created on any thread.
+     *
+     * @param manager The engine
+     * @param source The store to copy the totals of
+     * @param startTime The start of the interval in seconds
+     * @param endTime The end of the interval in seconds
+     * @param minuteReports The reports of the minutes of the interval
+     * @param totalTime The time the engine ticked for in the interval
+     * @param previous The record of the previous interval to encode against, if any
+     */
+    public HistoryRecord(final VanillaTimingsEngine manager, final TimingDataStore source, final long startTime, final long endTime,
+            final MinuteReport[] minuteReports, final long totalTime, @Nullable final HistoryRecord previous) {
         this.manager = manager;
-        this.endTime = System.currentTimeMillis() / 1000;
-        this.startTime = this.manager.ticksTracker.historyStart / 1000;
-        if (this.manager.ticksTracker.timedTicks % 1200 != 0 || this.manager.timingsReportsPerMinute.isEmpty()) {
-            this.minuteReports = this.manager.timingsReportsPerMinute.toArray(new MinuteReport[this.manager.timingsReportsPerMinute.size() + 1]);
-            this.minuteReports[this.minuteReports.length - 1] = new MinuteReport(manager);
-        } else {
-            this.minuteReports = this.manager.timingsReportsPerMinute.toArray(new MinuteReport[0]);
-        }
+        this.endTime = endTime;
+        this.startTime = startTime;
+        this.minuteReports = minuteReports;
         long ticks = 0;
         for (final MinuteReport mp : this.minuteReports) {
             ticks += mp.ticksRecord.timed;
         }
         this.totalTicks = ticks;
-        this.totalTime = this.manager.engineTickTiming.data.totalTime;
-        this.entries = new TimingHistoryEntry[this.manager.timings.size()];
+        this.totalTime = totalTime;
 
-        int i = 0;
-        for (final AbstractTiming timing : this.manager.timings) {
-            this.entries[i++] = new TimingHistoryEntry(timing);
-        }
+        this.snapshot = HistorySnapshot.encode(source, previous == null ? null : previous.snapshot);
+
+        this.entityTypes = new HashSet<>();
+        this.blockEntityTypes = new HashSet<>();
+    }
 
+    private HistoryRecord(final VanillaTimingsEngine manager, final ByteBuffer buffer, final IntUnaryOperator ids) {
+        this.manager = manager;
+        this.startTime = buffer.getLong();
+        this.endTime = buffer.getLong();
+        this.totalTicks = buffer.getLong();
+        this.totalTime = buffer.getLong();
+        this.minuteReports = new MinuteReport[buffer.getInt()];
+        final TimingDataStore minuteStore = new TimingDataStore(this.minuteReports.length);
+        for (int i = 0; i < this.minuteReports.length; i++) {
+            this.minuteReports[i] = MinuteReport.read(buffer, minuteStore, ids);
+        }
+        this.snapshot = HistorySnapshot.read(buffer, ids);
         this.entityTypes = new HashSet<>();
         this.blockEntityTypes = new HashSet<>();
     }
 
-    public JsonElement asJson() {
-        return JsonUtil.objectBuilder()
-                .add("s", this.startTime)
-                .add("e", this.endTime)
-                .add("tk", this.totalTicks)
-                .add("tm", this.totalTime)
-                .add("h", JsonUtil.mapArray(this.entries, (entry) -> entry.data.count == 0 ? null : entry.asJson()))
-                .add("mp", JsonUtil.mapArray(this.minuteReports, MinuteReport::asJson))
-                .build();
+    /**
+     * Reads a record written by {@link #write(ByteBuffer)}.
+     *
+     * @param manager The engine the record belongs to
+     * @param buffer The buffer to read from
+     * @param ids Maps every written timing id to the one to read it as
+     * @return The record
+     */
+    static HistoryRecord read(final VanillaTimingsEngine manager, final ByteBuffer buffer, final IntUnaryOperator ids) {
+        return new HistoryRecord(manager, buffer, ids);
+    }
+
+    /**
+     * Gets the id of every timing this record holds totals of.
+     *
+     * @return The ids
+     */
+    Set<Integer> ids() {
+        final Set<Integer> ids = new HashSet<>();
+        for (final MinuteReport minuteReport : this.minuteReports) {
+            ids.add(minuteReport.data.id);
+        }
+        this.snapshot.addIds(ids);
+        return ids;
+    }
+
+    /**
+     * Writes this record, starting with its start and end time. The written
+     * record does not depend on any other one.
+     *
+     * @param buffer The buffer to write to, with {@link #writtenSize(byte[])}
+     *     bytes remaining
+     * @param keyframe The totals of this record from {@link #keyframe()}
+     */
+    void write(final ByteBuffer buffer, final byte[] keyframe) {
+        buffer.putLong(this.startTime)
+                .putLong(this.endTime)
+                .putLong(this.totalTicks)
+                .putLong(this.totalTime)
+                .putInt(this.minuteReports.length);
+        for (final MinuteReport minuteReport : this.minuteReports) {
+            minuteReport.write(buffer);
+        }
+        this.snapshot.write(buffer, keyframe);
+    }
+
+    /**
+     * Gets the size {@link #write(ByteBuffer, byte[])} takes.
+     *
+     * @param keyframe The totals of this record from {@link #keyframe()}
+     * @return The size in bytes
+     */
+    int writtenSize(final byte[] keyframe) {
+        return 4 * 8 + 4 + this.minuteReports.length * MinuteReport.BYTES + this.snapshot.writtenSize(keyframe);
+    }
+
+    /**
+     * Packs the totals of this record without depending on any other
+     * record, to be written once and dropped.
+     *
+     * @return The packed totals
+     */
+    byte[] keyframe() {
+        return this.snapshot.keyframe();
+    }
+
+    /**
+     * Gets the reports of the minutes of the current interval, including the
+     * minute in progress. Must be called from the server thread.
+     *
+     * @param manager The engine
+     * @return The reports
+     */
+    public static MinuteReport[] minuteReports(final VanillaTimingsEngine manager) {
+        if (manager.ticksTracker.timedTicks % 1200 != 0 || manager.timingsReportsPerMinute.isEmpty()) {
+            final MinuteReport[] minuteReports = manager.timingsReportsPerMinute.toArray(new MinuteReport[manager.timingsReportsPerMinute.size() + 1]);
+            minuteReports[minuteReports.length - 1] = new MinuteReport(manager, manager.minuteStore());
+            return minuteReports;
+        }
+        return manager.timingsReportsPerMinute.toArray(new MinuteReport[0]);
+    }
+
+    /**
+     * Gets the size of the encoded totals of this record.
+     *
+     * @return The size in bytes
+     */
+    public int encodedSize() {
+        return this.snapshot.bytes();
+    }
+
+    TimingHistoryEntry[] entries() {
+        return this.snapshot.entries();
+    }
+
+    /**
+     * Adds the time spent in every handler of this record, and in each of
+     * its children, to a call graph.
+     *
+     * @param graph The graph
+     */
+    public void addTo(final CallGraph graph) {
+        for (final TimingHistoryEntry entry : this.entries()) {
+            if (entry.data.count() == 0) {
+                continue;
+            }
+            graph.add(entry.data.id, entry.data.id, entry.data.totalTime(), entry.data.count());
+            for (final TimingData child : entry.children) {
+                graph.add(entry.data.id, child.id, child.totalTime(), child.count());
+            }
+        }
+    }
+
+    /**
+     * Writes this record as an object, decoding its totals one entry at a
+     * time instead of building the whole tree first.
+     *
+     * @param out The writer
+     * @throws IOException If writing fails
+     */
+    public void writeJson(final JsonWriter out) throws IOException {
+        out.beginObject()
+                .name("s").value(this.startTime)
+                .name("e").value(this.endTime)
+                .name("tk").value(this.totalTicks)
+                .name("tm").value(this.totalTime);
+        out.name("h").beginArray();
+        for (final TimingHistoryEntry entry : this.entries()) {
+            if (entry.data.count() != 0) {
+                entry.writeJson(out);
+            }
+        }
+        out.endArray();
+        out.name("mp").beginArray();
+        for (final MinuteReport minuteReport : this.minuteReports) {
+            minuteReport.writeJson(out);
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    /**
+     * Writes this record in the binary report format. Handlers with totals
+     * go in one set of columns and their children in another, each handler
+     * followed by the amount of children it has.
+     *
+     * @param out The writer
+     * @throws IOException If writing fails
+     */
+    public void writeBinary(final BinaryReportWriter out) throws IOException {
+        out.writeLong(this.startTime);
+        out.writeLong(this.endTime);
+        out.writeLong(this.totalTicks);
+        out.writeLong(this.totalTime);
+        final List<TimingData> handlers = new ArrayList<>();
+        final List<TimingData> children = new ArrayList<>();
+        final TimingHistoryEntry[] entries = this.entries();
+        final int[] childCounts = new int[entries.length];
+        for (final TimingHistoryEntry entry : entries) {
+            if (entry.data.count() != 0) {
+                childCounts[handlers.size()] = entry.children.length;
+                handlers.add(entry.data);
+                Collections.addAll(children, entry.children);
+            }
+        }
+        out.writeRows(handlers);
+        for (int i = 0; i < handlers.size(); i++) {
+            out.writeLength(childCounts[i]);
+        }
+        out.writeRows(children);
+        out.writeLength(this.minuteReports.length);
+        for (final MinuteReport minuteReport : this.minuteReports) {
+            minuteReport.writeBinary(out);
+        }
     }
-}
\ No newline at end of file
+}
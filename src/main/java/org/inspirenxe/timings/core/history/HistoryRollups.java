@@ -0,0 +1,351 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.history;
+
+import org.inspirenxe.timings.core.AbstractTiming;
+import org.inspirenxe.timings.core.LatencyHistogram;
+import org.inspirenxe.timings.core.TimingDataStore;
+import org.inspirenxe.timings.core.util.LoadingIntTable;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates of the engine tick and the handlers over minutes, five minutes
+ * and hours, kept long after the history intervals they came from.
+ * <p>
+ * Every history interval is added to the open bucket of each level. Once an
+ * interval falls into a later bucket, the open one is summarized into the
+ * level, a preallocated ring of primitive columns that overwrites its oldest
+ * bucket once full. Only the handlers that took the most time are kept per
+ * bucket.
+ * <p>
+ * Only the history thread may record, other threads may read the buckets
+ * that were closed before they read {@link Level#size()}.
+ */
+public final class HistoryRollups {
+
+    public static final int MINUTES = 0;
+    public static final int FIVE_MINUTES = 1;
+    public static final int HOURS = 2;
+
+    private final Level[] levels;
+
+    /**
+     * Creates rollups keeping two hours of minutes, a day of five minutes and
+     * a week of hours.
+     *
+     * @param handlers The amount of handlers kept per bucket
+     */
+    public HistoryRollups(final int handlers) {
+        this.levels = new Level[] {
+                new Level(60, 120, handlers),
+                new Level(5 * 60, 24 * 12, handlers),
+                new Level(60 * 60, 7 * 24, handlers)
+        };
+    }
+
+    /**
+     * Gets a level.
+     *
+     * @param level {@link #MINUTES}, {@link #FIVE_MINUTES} or {@link #HOURS}
+     * @return The level
+     */
+    public Level level(final int level) {
+        return this.levels[level];
+    }
+
+    public int levels() {
+        return this.levels.length;
+    }
+
+    /**
+     * Adds the totals of a history interval.
+     *
+     * @param source The totals of the interval
+     * @param engine The engine tick timing
+     * @param time The end of the interval in seconds
+     */
+    public void record(final TimingDataStore source, final AbstractTiming engine, final long time) {
+        for (final Level level : this.levels) {
+            level.advance(time);
+        }
+        final int size = source.size();
+        for (int slot = 0; slot < size; slot++) {
+            final AbstractTiming owner = source.owner(slot);
+            if (owner == null || source.id(slot) != owner.id || source.count(slot) == 0) {
+                continue;
+            }
+            final LatencyHistogram histogram = source.histogram(slot);
+            for (final Level level : this.levels) {
+                if (owner == engine) {
+                    level.addTicks(source.count(slot), source.totalTime(slot), source.lagCount(slot), histogram);
+                } else {
+                    level.addHandler(owner.id, source.count(slot), source.totalTime(slot), histogram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Buckets of a single duration, indexed from the oldest one kept, 0, to
+     * the newest one, {@link #size()} - 1.
+     */
+    public static final class Level {
+
+        private final int duration;
+        private final int capacity;
+        private final int handlers;
+
+        private final long[] times;
+        private final int[] ticks;
+        private final long[] tickTotals;
+        private final long[] tickMins;
+        private final long[] tickMaxes;
+        private final long[] tickPercentiles;
+        private final int[] lagTicks;
+        private final int[] handlerSizes;
+        private final int[] handlerIds;
+        private final int[] handlerCounts;
+        private final long[] handlerTotals;
+        private final long[] handlerMaxes;
+        private final long[] handlerPercentiles;
+        private volatile long closed;
+
+        // The bucket being accumulated
+        private long openTime = -1;
+        private int openTicks;
+        private long openTickTotal;
+        private int openLagTicks;
+        private LatencyHistogram openTickHistogram = new LatencyHistogram();
+        private final LoadingIntTable<Accumulator> openHandlers = new LoadingIntTable<>(Accumulator::new);
+
+        Level(final int duration, final int capacity, final int handlers) {
+            this.duration = duration;
+            this.capacity = capacity;
+            this.handlers = handlers;
+            this.times = new long[capacity];
+            this.ticks = new int[capacity];
+            this.tickTotals = new long[capacity];
+            this.tickMins = new long[capacity];
+            this.tickMaxes = new long[capacity];
+            this.tickPercentiles = new long[capacity * 3];
+            this.lagTicks = new int[capacity];
+            this.handlerSizes = new int[capacity];
+            this.handlerIds = new int[capacity * handlers];
+            this.handlerCounts = new int[capacity * handlers];
+            this.handlerTotals = new long[capacity * handlers];
+            this.handlerMaxes = new long[capacity * handlers];
+            this.handlerPercentiles = new long[capacity * handlers * 2];
+        }
+
+        /**
+         * Gets the time a bucket covers.
+         *
+         * @return The duration in seconds
+         */
+        public int duration() {
+            return this.duration;
+        }
+
+        public int capacity() {
+            return this.capacity;
+        }
+
+        public int size() {
+            return (int) Math.min(this.closed, this.capacity);
+        }
+
+        /**
+         * Gets the start of a bucket.
+         *
+         * @param bucket The bucket
+         * @return The time in seconds
+         */
+        public long time(final int bucket) {
+            return this.times[this.position(bucket)];
+        }
+
+        public int ticks(final int bucket) {
+            return this.ticks[this.position(bucket)];
+        }
+
+        public long tickTotal(final int bucket) {
+            return this.tickTotals[this.position(bucket)];
+        }
+
+        public long tickAverage(final int bucket) {
+            final int position = this.position(bucket);
+            return this.ticks[position] == 0 ? 0 : this.tickTotals[position] / this.ticks[position];
+        }
+
+        public long tickMin(final int bucket) {
+            return this.tickMins[this.position(bucket)];
+        }
+
+        public long tickMax(final int bucket) {
+            return this.tickMaxes[this.position(bucket)];
+        }
+
+        /**
+         * Gets a percentile of the tick times of a bucket.
+         *
+         * @param bucket The bucket
+         * @param percentile 0 for the 50th, 1 for the 95th or 2 for the 99th
+         * @return The time in nanoseconds
+         */
+        public long tickPercentile(final int bucket, final int percentile) {
+            return this.tickPercentiles[this.position(bucket) * 3 + percentile];
+        }
+
+        /**
+         * Gets how many ticks of a bucket went over budget.
+         *
+         * @param bucket The bucket
+         * @return The count
+         */
+        public int lagTicks(final int bucket) {
+            return this.lagTicks[this.position(bucket)];
+        }
+
+        /**
+         * Gets how many handlers were kept for a bucket, those that took the
+         * most time first.
+         *
+         * @param bucket The bucket
+         * @return The count
+         */
+        public int handlers(final int bucket) {
+            return this.handlerSizes[this.position(bucket)];
+        }
+
+        public int handlerId(final int bucket, final int handler) {
+            return this.handlerIds[this.position(bucket) * this.handlers + handler];
+        }
+
+        public int handlerCount(final int bucket, final int handler) {
+            return this.handlerCounts[this.position(bucket) * this.handlers + handler];
+        }
+
+        public long handlerTotal(final int bucket, final int handler) {
+            return this.handlerTotals[this.position(bucket) * this.handlers + handler];
+        }
+
+        public long handlerMax(final int bucket, final int handler) {
+            return this.handlerMaxes[this.position(bucket) * this.handlers + handler];
+        }
+
+        /**
+         * Gets a percentile of the invocation times of a handler in a bucket.
+         *
+         * @param bucket The bucket
+         * @param handler The handler
+         * @param percentile 0 for the 50th or 1 for the 99th
+         * @return The time in nanoseconds
+         */
+        public long handlerPercentile(final int bucket, final int handler, final int percentile) {
+            return this.handlerPercentiles[(this.position(bucket) * this.handlers + handler) * 2 + percentile];
+        }
+
+        private int position(final int bucket) {
+            return (int) ((this.closed - this.size() + bucket) % this.capacity);
+        }
+
+        void advance(final long time) {
+            final long start = time - time % this.duration;
+            if (start == this.openTime) {
+                return;
+            }
+            if (this.openTime != -1 && (this.openTicks != 0 || !this.openHandlers.isEmpty())) {
+                this.close();
+            }
+            this.openTime = start;
+        }
+
+        void addTicks(final int count, final long total, final int lagCount, final LatencyHistogram histogram) {
+            this.openTicks += count;
+            this.openTickTotal += total;
+            this.openLagTicks += lagCount;
+            this.openTickHistogram.merge(histogram);
+        }
+
+        void addHandler(final int id, final int count, final long total, final LatencyHistogram histogram) {
+            final Accumulator accumulator = this.openHandlers.get(id);
+            accumulator.count += count;
+            accumulator.total += total;
+            accumulator.histogram.merge(histogram);
+        }
+
+        private void close() {
+            final int position = (int) (this.closed % this.capacity);
+            this.times[position] = this.openTime;
+            this.ticks[position] = this.openTicks;
+            this.tickTotals[position] = this.openTickTotal;
+            this.tickMins[position] = this.openTickHistogram.min();
+            this.tickMaxes[position] = this.openTickHistogram.max();
+            this.tickPercentiles[position * 3] = this.openTickHistogram.percentile(50);
+            this.tickPercentiles[position * 3 + 1] = this.openTickHistogram.percentile(95);
+            this.tickPercentiles[position * 3 + 2] = this.openTickHistogram.percentile(99);
+            this.lagTicks[position] = this.openLagTicks;
+
+            // Keep the handlers that took the most time
+            final Accumulator[] accumulators = new Accumulator[this.openHandlers.size()];
+            for (int i = 0; i < accumulators.length; i++) {
+                accumulators[i] = this.openHandlers.valueAt(i);
+            }
+            Arrays.sort(accumulators, (a, b) -> Long.compare(b.total, a.total));
+            final int size = Math.min(accumulators.length, this.handlers);
+            for (int i = 0; i < size; i++) {
+                final Accumulator accumulator = accumulators[i];
+                final int handler = position * this.handlers + i;
+                this.handlerIds[handler] = accumulator.id;
+                this.handlerCounts[handler] = accumulator.count;
+                this.handlerTotals[handler] = accumulator.total;
+                this.handlerMaxes[handler] = accumulator.histogram.max();
+                this.handlerPercentiles[handler * 2] = accumulator.histogram.percentile(50);
+                this.handlerPercentiles[handler * 2 + 1] = accumulator.histogram.percentile(99);
+            }
+            this.handlerSizes[position] = size;
+            this.closed++;
+
+            this.openTicks = 0;
+            this.openTickTotal = 0;
+            this.openLagTicks = 0;
+            this.openTickHistogram = new LatencyHistogram();
+            this.openHandlers.clear();
+        }
+    }
+
+    private static final class Accumulator {
+
+        final int id;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        int count;
+        long total;
+
+        Accumulator(final int id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.history;
+
+import org.inspirenxe.timings.core.AbstractTiming;
+import org.inspirenxe.timings.core.LatencyHistogram;
+import org.inspirenxe.timings.core.TimingData;
+import org.inspirenxe.timings.core.TimingDataStore;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+import javax.annotation.Nullable;
+
+/**
+ * The totals of every handler timed in a history interval, packed in
+ * primitive arrays.
+ * <p>
+ * The layout lists every handler with data by id, followed by the ids of its
+ * children with data. It is shared with the previous snapshot whenever the
+ * same handlers were timed. Totals are written as variable length numbers,
+ * histograms only by their used buckets. When the layout is shared, counts
+ * and times are written as the difference to the previous snapshot, up to
+ * {@link #KEYFRAME_INTERVAL} snapshots in a row, so no snapshot depends on
+ * more than a few others to be decoded.
+ * <p>
+ * Snapshots may be decoded and written from any thread.
+ */
+final class HistorySnapshot {
+
+    private static final int KEYFRAME_INTERVAL = 4;
+
+    // Repeating own id, amount of children, child ids
+    private final int[] layout;
+    private final int rows;
+    private final byte[] values;
+    @Nullable private final HistorySnapshot base;
+    private final int chain;
+
+    private HistorySnapshot(final int[] layout, final int rows, final byte[] values, @Nullable final HistorySnapshot base) {
+        this.layout = layout;
+        this.rows = rows;
+        this.values = values;
+        this.base = base;
+        this.chain = base == null ? 0 : base.chain + 1;
+    }
+
+    /**
+     * Encodes the totals held by a store.
+     *
+     * @param source The store
+     * @param previous The snapshot of the previous interval, if any
+     * @return The snapshot
+     */
+    static HistorySnapshot encode(final TimingDataStore source, @Nullable final HistorySnapshot previous) {
+        // Group the slots with data by the timing they belong to
+        final Map<AbstractTiming, Rows> timings = new LinkedHashMap<>();
+        final int size = source.size();
+        for (int slot = 0; slot < size; slot++) {
+            final AbstractTiming owner = source.owner(slot);
+            if (owner == null || source.count(slot) == 0) {
+                continue;
+            }
+            timings.computeIfAbsent(owner, key -> new Rows()).add(slot, source.id(slot) == owner.id);
+        }
+
+        int length = 0;
+        int rows = 0;
+        for (final Rows entry : timings.values()) {
+            if (entry.own != -1) {
+                length += 2 + entry.size;
+                rows += 1 + entry.size;
+            }
+        }
+        final int[] slots = new int[rows];
+        int[] layout = new int[length];
+        int position = 0;
+        int row = 0;
+        for (final Rows entry : timings.values()) {
+            if (entry.own == -1) {
+                continue;
+            }
+            layout[position++] = source.id(entry.own);
+            layout[position++] = entry.size;
+            slots[row++] = entry.own;
+            for (int i = 0; i < entry.size; i++) {
+                layout[position++] = source.id(entry.children[i]);
+                slots[row++] = entry.children[i];
+            }
+        }
+
+        final int[] owns = HistorySnapshot.owns(layout, rows);
+        final Values values = new Values(rows);
+        for (row = 0; row < rows; row++) {
+            final int slot = slots[row];
+            values.count[row] = source.count(slot);
+            values.totalTime[row] = source.totalTime(slot);
+            for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                values.lagCount[tier][row] = source.lagCount(slot, tier);
+                values.lagTotalTime[tier][row] = source.lagTotalTime(slot, tier);
+            }
+            if (owns[row] == 1) {
+                values.allocatedBytes[row] = source.allocatedBytes(slot);
+                values.cpuTime[row] = source.cpuTime(slot);
+            }
+            if (owns[row] == 1 && source.maxTime(slot) != 0) {
+                final LatencyHistogram histogram = source.histogram(slot);
+                final int[] buckets = new int[LatencyHistogram.BUCKETS];
+                for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+                    buckets[bucket] = histogram.count(bucket);
+                }
+                values.histograms[row] = buckets;
+                values.maxTime[row] = histogram.max();
+            }
+        }
+
+        HistorySnapshot base = null;
+        if (previous != null && Arrays.equals(previous.layout, layout)) {
+            layout = previous.layout;
+            if (previous.chain + 1 < HistorySnapshot.KEYFRAME_INTERVAL) {
+                base = previous;
+            }
+        }
+        return new HistorySnapshot(layout, rows, HistorySnapshot.pack(values, base == null ? null : base.decode(), owns), base);
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(ByteBuffer)}.
+     *
+     * @param buffer The buffer to read from
+     * @param ids Maps every written timing id to the one to decode
+     * @return The snapshot
+     */
+    static HistorySnapshot read(final ByteBuffer buffer, final IntUnaryOperator ids) {
+        final int[] layout = new int[buffer.getInt()];
+        buffer.asIntBuffer().get(layout);
+        buffer.position(buffer.position() + layout.length * 4);
+        for (int position = 0; position < layout.length; position += 2 + layout[position + 1]) {
+            layout[position] = ids.applyAsInt(layout[position]);
+            for (int i = 0; i < layout[position + 1]; i++) {
+                layout[position + 2 + i] = ids.applyAsInt(layout[position + 2 + i]);
+            }
+        }
+        final int rows = buffer.getInt();
+        final byte[] values = new byte[buffer.getInt()];
+        buffer.get(values);
+        return new HistorySnapshot(layout, rows, values, null);
+    }
+
+    /**
+     * Adds the id of every handler and child in this snapshot to a set.
+     *
+     * @param ids The set
+     */
+    void addIds(final Set<Integer> ids) {
+        for (int position = 0; position < this.layout.length; position += 2 + this.layout[position + 1]) {
+            ids.add(this.layout[position]);
+            for (int i = 0; i < this.layout[position + 1]; i++) {
+                ids.add(this.layout[position + 2 + i]);
+            }
+        }
+    }
+
+    /**
+     * Writes this snapshot without depending on any other one.
+     *
+     * @param buffer The buffer to write to, with {@link #writtenSize(byte[])}
+     *     bytes remaining
+     * @param keyframe The values of this snapshot from {@link #keyframe()}
+     */
+    void write(final ByteBuffer buffer, final byte[] keyframe) {
+        buffer.putInt(this.layout.length);
+        buffer.asIntBuffer().put(this.layout);
+        buffer.position(buffer.position() + this.layout.length * 4);
+        buffer.putInt(this.rows);
+        buffer.putInt(keyframe.length);
+        buffer.put(keyframe);
+    }
+
+    /**
+     * Gets the size {@link #write(ByteBuffer, byte[])} takes.
+     *
+     * @param keyframe The values of this snapshot from {@link #keyframe()}
+     * @return The size in bytes
+     */
+    int writtenSize(final byte[] keyframe) {
+        return 12 + this.layout.length * 4 + keyframe.length;
+    }
+
+    /**
+     * Packs the values of this snapshot as if it had no base. Snapshots
+     * with a base decode and pack them again every time, they are only
+     * needed while a snapshot is written and are not kept.
+     *
+     * @return The values
+     */
+    byte[] keyframe() {
+        if (this.base == null) {
+            return this.values;
+        }
+        return HistorySnapshot.pack(this.decode(), null, HistorySnapshot.owns(this.layout, this.rows));
+    }
+
+    private static byte[] pack(final Values values, @Nullable final Values base, final int[] owns) {
+        final Writer writer = new Writer(owns.length * 8);
+        for (int row = 0; row < owns.length; row++) {
+            if (base == null) {
+                writer.writeLong(values.count[row]);
+                writer.writeLong(values.totalTime[row]);
+            } else {
+                writer.writeSigned(values.count[row] - base.count[row]);
+                writer.writeSigned(values.totalTime[row] - base.totalTime[row]);
+            }
+            int lagMask = 0;
+            for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                if (values.lagCount[tier][row] != 0) {
+                    lagMask |= 1 << tier;
+                }
+            }
+            writer.writeLong(lagMask);
+            for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                if ((lagMask & 1 << tier) != 0) {
+                    writer.writeLong(values.lagCount[tier][row]);
+                    writer.writeLong(values.lagTotalTime[tier][row]);
+                }
+            }
+            if (owns[row] == 1) {
+                writer.writeLong(values.allocatedBytes[row]);
+                writer.writeLong(values.cpuTime[row]);
+                final int[] histogram = values.histograms[row];
+                if (histogram == null) {
+                    writer.writeLong(0);
+                    continue;
+                }
+                int used = 0;
+                for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+                    if (histogram[bucket] != 0) {
+                        used++;
+                    }
+                }
+                writer.writeLong(used + 1);
+                int last = 0;
+                for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+                    if (histogram[bucket] != 0) {
+                        writer.writeLong(bucket - last);
+                        writer.writeLong(histogram[bucket]);
+                        last = bucket;
+                    }
+                }
+                writer.writeLong(values.maxTime[row]);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decodes the entries of this snapshot, each copy sharing a single store.
+     *
+     * @return The entries
+     */
+    TimingHistoryEntry[] entries() {
+        final Values values = this.decode();
+        final TimingDataStore store = new TimingDataStore(this.rows);
+        int entries = 0;
+        for (int position = 0; position < this.layout.length; position += 2 + this.layout[position + 1]) {
+            entries++;
+        }
+        final TimingHistoryEntry[] result = new TimingHistoryEntry[entries];
+        final int[] lagCount = new int[TimingDataStore.VIOLATION_TIERS];
+        final long[] lagTotalTime = new long[TimingDataStore.VIOLATION_TIERS];
+        int row = 0;
+        int position = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            final TimingData[] data = new TimingData[1 + this.layout[position + 1]];
+            for (int i = 0; i < data.length; i++) {
+                final int id = this.layout[position + (i == 0 ? 0 : 1 + i)];
+                for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                    lagCount[tier] = values.lagCount[tier][row];
+                    lagTotalTime[tier] = values.lagTotalTime[tier][row];
+                }
+                data[i] = store.restore(id, values.count[row], values.totalTime[row], lagCount, lagTotalTime, values.histograms[row],
+                        values.maxTime[row], values.allocatedBytes[row], values.cpuTime[row]);
+                row++;
+            }
+            result[entry] = new TimingHistoryEntry(data[0], Arrays.copyOfRange(data, 1, data.length));
+            position += data.length + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the size of this snapshot, not counting a shared layout or the
+     * snapshots it depends on.
+     *
+     * @return The size in bytes
+     */
+    int bytes() {
+        return this.values.length + (this.base != null && this.base.layout == this.layout ? 0 : this.layout.length * 4);
+    }
+
+    private Values decode() {
+        final Values baseValues = this.base == null ? null : this.base.decode();
+        final Values values = new Values(this.rows);
+        final int[] owns = HistorySnapshot.owns(this.layout, this.rows);
+        final Reader reader = new Reader(this.values);
+        for (int row = 0; row < this.rows; row++) {
+            if (baseValues == null) {
+                values.count[row] = (int) reader.readLong();
+                values.totalTime[row] = reader.readLong();
+            } else {
+                values.count[row] = (int) (baseValues.count[row] + reader.readSigned());
+                values.totalTime[row] = baseValues.totalTime[row] + reader.readSigned();
+            }
+            final int lagMask = (int) reader.readLong();
+            for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                if ((lagMask & 1 << tier) != 0) {
+                    values.lagCount[tier][row] = (int) reader.readLong();
+                    values.lagTotalTime[tier][row] = reader.readLong();
+                }
+            }
+            if (owns[row] == 1) {
+                values.allocatedBytes[row] = reader.readLong();
+                values.cpuTime[row] = reader.readLong();
+                final int used = (int) reader.readLong() - 1;
+                if (used >= 0) {
+                    final int[] histogram = new int[LatencyHistogram.BUCKETS];
+                    int bucket = 0;
+                    for (int i = 0; i < used; i++) {
+                        bucket += (int) reader.readLong();
+                        histogram[bucket] = (int) reader.readLong();
+                    }
+                    values.histograms[row] = histogram;
+                    values.maxTime[row] = reader.readLong();
+                }
+            }
+        }
+        return values;
+    }
+
+    // 1 for rows holding the data of a handler itself, 0 for its children
+    private static int[] owns(final int[] layout, final int rows) {
+        final int[] owns = new int[rows];
+        int row = 0;
+        for (int position = 0; position < layout.length; position += 2 + layout[position + 1]) {
+            owns[row] = 1;
+            row += 1 + layout[position + 1];
+        }
+        return owns;
+    }
+
+    private static final class Values {
+
+        final int[] count;
+        final long[] totalTime;
+        final int[][] lagCount = new int[TimingDataStore.VIOLATION_TIERS][];
+        final long[][] lagTotalTime = new long[TimingDataStore.VIOLATION_TIERS][];
+        final int[][] histograms;
+        final long[] maxTime;
+        final long[] allocatedBytes;
+        final long[] cpuTime;
+
+        Values(final int rows) {
+            this.count = new int[rows];
+            this.totalTime = new long[rows];
+            for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+                this.lagCount[tier] = new int[rows];
+                this.lagTotalTime[tier] = new long[rows];
+            }
+            this.histograms = new int[rows][];
+            this.maxTime = new long[rows];
+            this.allocatedBytes = new long[rows];
+            this.cpuTime = new long[rows];
+        }
+    }
+
+    private static final class Rows {
+
+        int own = -1;
+        int[] children = new int[4];
+        int size;
+
+        void add(final int slot, final boolean own) {
+            if (own) {
+                this.own = slot;
+                return;
+            }
+            if (this.size == this.children.length) {
+                this.children = Arrays.copyOf(this.children, this.size << 1);
+            }
+            this.children[this.size++] = slot;
+        }
+    }
+
+    private static final class Writer {
+
+        private byte[] bytes;
+        private int size;
+
+        Writer(final int expectedSize) {
+            this.bytes = new byte[Math.max(16, expectedSize)];
+        }
+
+        void writeSigned(final long value) {
+            this.writeLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeLong(long value) {
+            if (this.size + 10 > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, this.bytes.length << 1);
+            }
+            while ((value & ~0x7FL) != 0) {
+                this.bytes[this.size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.bytes[this.size++] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(this.bytes, this.size);
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        Reader(final byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long readSigned() {
+            final long value = this.readLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = this.bytes[this.position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.history;
+
+import org.apache.logging.log4j.Logger;
+import org.inspirenxe.timings.core.AbstractTiming;
+import org.inspirenxe.timings.core.VanillaTimingsEngine;
+import org.inspirenxe.timings.core.export.TraceExport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
+
+import javax.annotation.Nullable;
+
+/**
+ * History records kept on disk, in append only segment files mapped into
+ * memory.
+ * <p>
+ * Records are appended to the newest segment until it is full, then a new
+ * segment is started. Whenever one is started, the oldest segments are
+ * deleted to stay within the disk limit and the retention. Every record is
+ * written on its own, so any time window can be read back, including records
+ * of earlier runs of the server.
+ * <p>
+ * Timing ids are only unique within a run. Before a record, the group and
+ * name of each of its timings not yet named in the segment by this run are
+ * written in a table, and the first table of a run in a segment replaces the
+ * ones before it.
+ * <p>
+ * Appending and reading touch the disk, neither may be called from the
+ * server thread.
+ */
+public final class HistoryStore {
+
+    static final int SEGMENT_SIZE = 8 << 20;
+    private static final int MAGIC = 0x544D4853;
+    private static final int VERSION = 5;
+    private static final int HEADER_SIZE = 8;
+    private static final byte RECORD = 0;
+    private static final byte NAMES = 1;
+    private static final String PREFIX = "history-";
+    private static final String SUFFIX = ".dat";
+
+    private final Logger logger;
+    private final Path directory;
+    private final long diskLimit;
+    private final long retention;
+    // Ordered by the time of their first record
+    private final List<Segment> segments = new ArrayList<>();
+    // Ids named in the newest segment by this run
+    private final Set<Integer> named = new HashSet<>();
+    private boolean namedRun;
+    private boolean opened;
+    private boolean failed;
+    @Nullable private Segment active;
+    @Nullable private MappedByteBuffer buffer;
+    private int position;
+
+    /**
+     * Creates a store of the segments in a directory. Nothing is read until
+     * the store is first used.
+     *
+     * @param logger The logger to report deletion failures to
+     * @param directory The directory
+     * @param diskLimit The disk space segments may take in bytes
+     * @param retention How long records are kept in seconds
+     */
+    public HistoryStore(final Logger logger, final Path directory, final long diskLimit, final long retention) {
+        this.logger = logger;
+        this.directory = directory;
+        this.diskLimit = diskLimit;
+        this.retention = retention;
+    }
+
+    /**
+     * Appends a record to the newest segment. Once appending failed, later
+     * records are dropped.
+     *
+     * @param record The record
+     * @throws IOException If the record could not be written
+     */
+    public synchronized void append(final HistoryRecord record) throws IOException {
+        if (this.failed) {
+            return;
+        }
+        try {
+            this.write(record);
+        } catch (final IOException e) {
+            this.failed = true;
+            throw e;
+        }
+    }
+
+    private void write(final HistoryRecord record) throws IOException {
+        this.open();
+        // Packed once for the whole write, the record does not keep it
+        final byte[] keyframe = record.keyframe();
+        final int size = 1 + record.writtenSize(keyframe);
+        final Set<Integer> ids = record.ids();
+        byte[] names = this.names(record.manager, ids);
+        if (size + 4 + names.length > HistoryStore.SEGMENT_SIZE - HistoryStore.HEADER_SIZE - 4) {
+            throw new IOException("History record of " + size + " bytes does not fit in a segment");
+        }
+        if (this.buffer == null || this.position + 4 + names.length + 4 + size > HistoryStore.SEGMENT_SIZE) {
+            this.rotate(record.startTime);
+            names = this.names(record.manager, ids);
+        }
+        if (names.length > 1) {
+            final ByteBuffer buffer = this.buffer.duplicate();
+            buffer.position(this.position + 4);
+            buffer.put(names);
+            this.buffer.putInt(this.position, names.length);
+            this.position += 4 + names.length;
+            this.named.addAll(ids);
+            this.namedRun = true;
+        }
+        final ByteBuffer buffer = this.buffer.duplicate();
+        buffer.position(this.position + 4);
+        buffer.put(HistoryStore.RECORD);
+        record.write(buffer, keyframe);
+        // Length goes last, a record torn by a crash reads as the end
+        this.buffer.putInt(this.position, size);
+        this.position += 4 + size;
+    }
+
+    // The table of the ids not yet named in the newest segment by this run,
+    // only the kind if there are none
+    private byte[] names(final VanillaTimingsEngine manager, final Set<Integer> ids) {
+        final Set<Integer> missing = new HashSet<>(ids);
+        missing.removeAll(this.named);
+        if (missing.isEmpty() && this.namedRun) {
+            return new byte[] {HistoryStore.NAMES};
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(HistoryStore.NAMES);
+            out.writeBoolean(!this.namedRun);
+            final Map<Integer, AbstractTiming> timings = TraceExport.timings(manager);
+            out.writeInt(missing.size());
+            for (final int id : missing) {
+                final AbstractTiming timing = timings.get(id);
+                out.writeInt(id);
+                out.writeUTF(timing == null ? "Unknown" : timing.groupName);
+                out.writeUTF(timing == null ? "#" + id : timing.name);
+            }
+        } catch (final IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads every record that overlaps a time window.
+     *
+     * @param manager The engine the records belong to
+     * @param ids The map to name the timings of the records in
+     * @param from The start of the window in seconds
+     * @param to The end of the window in seconds
+     * @return The records, oldest first, with the timing ids of the map
+     * @throws IOException If a segment could not be read
+     */
+    public synchronized List<HistoryRecord> read(final VanillaTimingsEngine manager, final HistoryIdMap ids, final long from, final long to)
+            throws IOException {
+        this.open();
+        final List<HistoryRecord> records = new ArrayList<>();
+        for (int i = 0; i < this.segments.size(); i++) {
+            final Segment segment = this.segments.get(i);
+            // Records of a segment end before the next segment starts
+            if (segment.firstTime > to || i + 1 < this.segments.size() && this.segments.get(i + 1).firstTime < from) {
+                continue;
+            }
+            final ByteBuffer buffer = segment == this.active ? this.buffer.duplicate() : HistoryStore.load(segment.path);
+            if (buffer == null) {
+                continue;
+            }
+            buffer.position(HistoryStore.HEADER_SIZE);
+            final Map<Integer, Integer> written = new HashMap<>();
+            final IntUnaryOperator mapping = id -> {
+                final Integer mapped = written.get(id);
+                return mapped != null ? mapped : ids.id("Unknown", "#" + id);
+            };
+            int length;
+            while ((length = HistoryStore.next(buffer)) != 0) {
+                final int next = buffer.position() + length;
+                if (buffer.get() == HistoryStore.NAMES) {
+                    HistoryStore.readNames(buffer, next, ids, written);
+                } else {
+                    final long startTime = buffer.getLong(buffer.position());
+                    final long endTime = buffer.getLong(buffer.position() + 8);
+                    if (endTime >= from && startTime <= to) {
+                        records.add(HistoryRecord.read(manager, buffer, mapping));
+                    }
+                }
+                buffer.position(next);
+            }
+        }
+        return records;
+    }
+
+    private static void readNames(final ByteBuffer buffer, final int end, final HistoryIdMap ids, final Map<Integer, Integer> written)
+            throws IOException {
+        if (buffer.position() == end) {
+            return;
+        }
+        final byte[] table = new byte[end - buffer.position()];
+        buffer.get(table);
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(table));
+        if (in.readBoolean()) {
+            written.clear();
+        }
+        for (int count = in.readInt(); count > 0; count--) {
+            final int id = in.readInt();
+            final String group = in.readUTF();
+            final String name = in.readUTF();
+            written.put(id, ids.id(group, name));
+        }
+    }
+
+    /**
+     * Flushes the newest segment to disk.
+     */
+    public synchronized void flush() {
+        if (this.buffer != null) {
+            this.buffer.force();
+        }
+    }
+
+    private void open() throws IOException {
+        if (this.opened) {
+            return;
+        }
+        this.opened = true;
+        Files.createDirectories(this.directory);
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, HistoryStore.PREFIX + "*" + HistoryStore.SUFFIX)) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+                try {
+                    this.segments.add(new Segment(path,
+                            Long.parseLong(name.substring(HistoryStore.PREFIX.length(), name.length() - HistoryStore.SUFFIX.length()))));
+                } catch (final NumberFormatException ignored) {
+                }
+            }
+        }
+        this.segments.sort((a, b) -> Long.compare(a.firstTime, b.firstTime));
+        if (this.segments.isEmpty()) {
+            return;
+        }
+
+        // Continue the newest segment of the last run
+        final Segment last = this.segments.get(this.segments.size() - 1);
+        if (Files.size(last.path) != HistoryStore.SEGMENT_SIZE) {
+            return;
+        }
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(last.path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HistoryStore.SEGMENT_SIZE);
+        }
+        if (buffer.getInt(0) != HistoryStore.MAGIC || buffer.getInt(4) != HistoryStore.VERSION) {
+            return;
+        }
+        final ByteBuffer scan = buffer.duplicate();
+        int end = HistoryStore.HEADER_SIZE;
+        scan.position(end);
+        int length;
+        while ((length = HistoryStore.next(scan)) != 0) {
+            end = scan.position() + length;
+            scan.position(end);
+        }
+        this.active = last;
+        this.buffer = buffer;
+        this.position = end;
+    }
+
+    private void rotate(final long firstTime) throws IOException {
+        if (this.buffer != null) {
+            this.buffer.force();
+        }
+        // Segment names have to stay unique and ordered
+        long time = firstTime;
+        if (!this.segments.isEmpty()) {
+            time = Math.max(time, this.segments.get(this.segments.size() - 1).firstTime + 1);
+        }
+        final Segment segment = new Segment(this.directory.resolve(HistoryStore.PREFIX + time + HistoryStore.SUFFIX), time);
+        try (final FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HistoryStore.SEGMENT_SIZE);
+        }
+        this.buffer.putInt(0, HistoryStore.MAGIC);
+        this.buffer.putInt(4, HistoryStore.VERSION);
+        this.position = HistoryStore.HEADER_SIZE;
+        this.named.clear();
+        this.namedRun = false;
+        this.active = segment;
+        this.segments.add(segment);
+
+        final long limit = Math.max(1, this.diskLimit / HistoryStore.SEGMENT_SIZE);
+        while (this.segments.size() > 1
+                && (this.segments.size() > limit || this.segments.get(1).firstTime < time - this.retention)) {
+            final Segment oldest = this.segments.remove(0);
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (final IOException e) {
+                this.logger.warn("Could not delete timings history segment " + oldest.path, e);
+            }
+        }
+    }
+
+    // The length of the record at the position of the buffer, 0 past the last one
+    private static int next(final ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            return 0;
+        }
+        final int length = buffer.getInt();
+        return length > 0 && length <= buffer.remaining() ? length : 0;
+    }
+
+    @Nullable
+    private static ByteBuffer load(final Path path) throws IOException {
+        final ByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = ByteBuffer.allocate((int) Math.min(channel.size(), HistoryStore.SEGMENT_SIZE));
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            }
+        }
+        buffer.flip();
+        if (buffer.remaining() < HistoryStore.HEADER_SIZE || buffer.getInt(0) != HistoryStore.MAGIC || buffer.getInt(4) != HistoryStore.VERSION) {
+            return null;
+        }
+        return buffer;
+    }
+
+    private static final class Segment {
+
+        final Path path;
+        final long firstTime;
+
+        Segment(final Path path, final long firstTime) {
+            this.path = path;
+            this.firstTime = firstTime;
+        }
+    }
+}
@@ -24,18 +24,25 @@
  */
 package org.inspirenxe.timings.core.history;
 
-import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonWriter;
 import org.inspirenxe.timings.core.TimingData;
+import org.inspirenxe.timings.core.TimingDataStore;
 import org.inspirenxe.timings.core.VanillaTimingsEngine;
+import org.inspirenxe.timings.core.export.BinaryReportWriter;
 import org.inspirenxe.timings.core.history.record.PingRecord;
 import org.inspirenxe.timings.core.history.record.ServerTicksRecord;
-import org.inspirenxe.timings.core.util.JsonUtil;
 import org.spongepowered.api.Sponge;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.function.IntUnaryOperator;
 
 public final class MinuteReport {
 
+    static final int BYTES = 7 * 8 + 4 + 4 + 8 + TimingDataStore.VIOLATION_TIERS * 12 + 4 * 8 + 4 + 8 + 4;
+
     final long time;
     final ServerTicksRecord ticksRecord;
     final PingRecord pingRecord;
@@ -44,28 +51,133 @@ public final class MinuteReport {
     final double usedMemory;
     final double freeMemory;
     final double loadAvg;
+    final int gcTicks;
+    final long gcTime;
+    final int gcExplained;
 
-    public MinuteReport(final VanillaTimingsEngine manager) {
+    /**
+     * Creates a report of the minute in progress.
+     *
+     * @param manager The engine
+     * @param target The store to copy the totals of the minute into
+     */
+    public MinuteReport(final VanillaTimingsEngine manager, final TimingDataStore target) {
         this.time = System.currentTimeMillis() / 1000;
         this.ticksRecord = new ServerTicksRecord(manager.ticksTracker.timedTicks, manager.timingsReportsPerMinute.size());
         this.pingRecord = new PingRecord(Sponge.server().onlinePlayers());
-        this.data = manager.engineTickTiming.minuteData.copy();
+        this.data = manager.engineTickTiming.minuteData.copy(target);
         this.tps = 1E9 / (System.nanoTime() - manager.ticksTracker.lastMinuteTime) * this.ticksRecord.timed;
         this.usedMemory = manager.engineTickTiming.avgUsedMemory;
         this.freeMemory = manager.engineTickTiming.avgFreeMemory;
         this.loadAvg = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        this.gcTicks = manager.engineTickTiming.minuteGcTicks;
+        this.gcTime = manager.engineTickTiming.minuteGcTime;
+        this.gcExplained = manager.engineTickTiming.minuteGcExplained;
+    }
+
+    private MinuteReport(final ByteBuffer buffer, final TimingDataStore target, final IntUnaryOperator ids) {
+        this.time = buffer.getLong();
+        this.ticksRecord = new ServerTicksRecord(buffer.getLong(), 0);
+        this.ticksRecord.player = buffer.getLong();
+        this.ticksRecord.entity = buffer.getLong();
+        this.ticksRecord.blockEntity = buffer.getLong();
+        this.ticksRecord.activatedEntity = buffer.getLong();
+        this.pingRecord = new PingRecord(buffer.getDouble());
+        final int id = ids.applyAsInt(buffer.getInt());
+        final int count = buffer.getInt();
+        final long totalTime = buffer.getLong();
+        final int[] lagCount = new int[TimingDataStore.VIOLATION_TIERS];
+        final long[] lagTotalTime = new long[TimingDataStore.VIOLATION_TIERS];
+        for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+            lagCount[tier] = buffer.getInt();
+            lagTotalTime[tier] = buffer.getLong();
+        }
+        this.data = target.restore(id, count, totalTime, lagCount, lagTotalTime, null, 0, 0, 0);
+        this.tps = buffer.getDouble();
+        this.usedMemory = buffer.getDouble();
+        this.freeMemory = buffer.getDouble();
+        this.loadAvg = buffer.getDouble();
+        this.gcTicks = buffer.getInt();
+        this.gcTime = buffer.getLong();
+        this.gcExplained = buffer.getInt();
+    }
+
+    /**
+     * Reads a report written by {@link #write(ByteBuffer)}.
+     *
+     * @param buffer The buffer to read from
+     * @param target The store to restore the totals into
+     * @param ids Maps the written timing id to the one to restore
+     * @return The report
+     */
+    static MinuteReport read(final ByteBuffer buffer, final TimingDataStore target, final IntUnaryOperator ids) {
+        return new MinuteReport(buffer, target, ids);
+    }
+
+    /**
+     * Writes this report in {@link #BYTES} bytes.
+     *
+     * @param buffer The buffer to write to
+     */
+    void write(final ByteBuffer buffer) {
+        buffer.putLong(this.time)
+                .putLong(this.ticksRecord.timed)
+                .putLong(this.ticksRecord.player)
+                .putLong(this.ticksRecord.entity)
+                .putLong(this.ticksRecord.blockEntity)
+                .putLong(this.ticksRecord.activatedEntity)
+                .putDouble(this.pingRecord.avg)
+                .putInt(this.data.id)
+                .putInt(this.data.count())
+                .putLong(this.data.totalTime());
+        for (int tier = 0; tier < TimingDataStore.VIOLATION_TIERS; tier++) {
+            buffer.putInt(this.data.lagCount(tier))
+                    .putLong(this.data.lagTotalTime(tier));
+        }
+        buffer.putDouble(this.tps)
+                .putDouble(this.usedMemory)
+                .putDouble(this.freeMemory)
+                .putDouble(this.loadAvg)
+                .putInt(this.gcTicks)
+                .putLong(this.gcTime)
+                .putInt(this.gcExplained);
+    }
 
+    public void writeJson(final JsonWriter out) throws IOException {
+        out.beginArray()
+                .value(this.time)
+                .value(Math.round(this.tps * 100D) / 100D)
+                .value(Math.round(this.pingRecord.avg * 100D) / 100D);
+        this.data.writeJson(out);
+        this.ticksRecord.writeJson(out);
+        out.value(this.usedMemory)
+                .value(this.freeMemory)
+                .value(this.loadAvg)
+                // Ticks paused by collections, the pause time, and the lagging
+                // ticks that would not have lagged without the pause
+                .beginArray()
+                .value(this.gcTicks)
+                .value(this.gcTime)
+                .value(this.gcExplained)
+                .endArray()
+                .endArray();
     }
 
-    public JsonElement asJson() {
-        return JsonUtil.arrayOf(
-                this.time,
-                Math.round(this.tps * 100D) / 100D,
-                Math.round(this.pingRecord.avg * 100D) / 100D,
-                this.data.asJson(),
-                this.ticksRecord.asJson(),
-                this.usedMemory,
-                this.freeMemory,
-                this.loadAvg);
+    public void writeBinary(final BinaryReportWriter out) throws IOException {
+        out.writeLong(this.time);
+        out.writeDouble(Math.round(this.tps * 100D) / 100D);
+        out.writeDouble(Math.round(this.pingRecord.avg * 100D) / 100D);
+        out.writeRows(Collections.singletonList(this.data));
+        out.writeLong(this.ticksRecord.timed);
+        out.writeLong(this.ticksRecord.player);
+        out.writeLong(this.ticksRecord.entity);
+        out.writeLong(this.ticksRecord.activatedEntity);
+        out.writeLong(this.ticksRecord.blockEntity);
+        out.writeDouble(this.usedMemory);
+        out.writeDouble(this.freeMemory);
+        out.writeDouble(this.loadAvg);
+        out.writeLong(this.gcTicks);
+        out.writeLong(this.gcTime);
+        out.writeLong(this.gcExplained);
     }
 }
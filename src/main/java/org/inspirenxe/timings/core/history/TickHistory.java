@@ -0,0 +1,224 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.history;
+
+import org.inspirenxe.timings.core.TimingDataStore;
+
+/**
+ * The last ticks of the engine, one entry per tick in preallocated columns.
+ * <p>
+ * Once full, every tick overwrites the oldest one, so recording never
+ * allocates. Ticks are indexed from the oldest one kept, 0, to the newest
+ * one, {@link #size()} - 1.
+ * <p>
+ * Only the thread ticking the engine may record, other threads may read
+ * what was recorded before they read {@link #ticks()}.
+ */
+public final class TickHistory {
+
+    /**
+     * Flag of a tick that went over budget. A tick that went over violation
+     * tier t is flagged with 1 << t.
+     */
+    public static final int VIOLATED = 1;
+    /**
+     * Flag of a tick a garbage collection paused.
+     */
+    public static final int GC_PAUSED = 1 << 5;
+    /**
+     * Flag of a tick that went over budget only because of a garbage
+     * collection pause.
+     */
+    public static final int GC_EXPLAINED = 1 << 6;
+
+    private final long[] startTimes;
+    private final long[] durations;
+    private final long[] overheads;
+    private final long[] gcTimes;
+    private final byte[] flags;
+    private volatile long ticks;
+
+    /**
+     * Creates a history keeping the given amount of ticks.
+     *
+     * @param capacity The ticks to keep
+     */
+    public TickHistory(final int capacity) {
+        final int size = Math.max(1, capacity);
+        this.startTimes = new long[size];
+        this.durations = new long[size];
+        this.overheads = new long[size];
+        this.gcTimes = new long[size];
+        this.flags = new byte[size];
+    }
+
+    private TickHistory(final TickHistory source) {
+        final long ticks = source.ticks;
+        final int size = (int) Math.min(ticks, source.durations.length);
+        this.startTimes = new long[Math.max(1, size)];
+        this.durations = new long[this.startTimes.length];
+        this.overheads = new long[this.startTimes.length];
+        this.gcTimes = new long[this.startTimes.length];
+        this.flags = new byte[this.startTimes.length];
+        for (int tick = 0; tick < size; tick++) {
+            final int position = (int) ((ticks - size + tick) % source.durations.length);
+            this.startTimes[tick] = source.startTimes[position];
+            this.durations[tick] = source.durations[position];
+            this.overheads[tick] = source.overheads[position];
+            this.gcTimes[tick] = source.gcTimes[position];
+            this.flags[tick] = source.flags[position];
+        }
+        this.ticks = size;
+    }
+
+    /**
+     * Copies the ticks kept, to read them on another thread while this
+     * history keeps recording. Must be called from the thread recording.
+     *
+     * @return The copy
+     */
+    public TickHistory copy() {
+        return new TickHistory(this);
+    }
+
+    /**
+     * Records a tick.
+     *
+     * @param startTime When the tick started, in {@link System#nanoTime()}
+     * @param duration How long the tick took in nanoseconds
+     * @param overhead How long timing the tick took in nanoseconds
+     * @param gcTime How long garbage collections paused the tick in
+     *     nanoseconds
+     * @param flags The flags of the tick
+     */
+    public void record(final long startTime, final long duration, final long overhead, final long gcTime, final int flags) {
+        final long ticks = this.ticks;
+        final int position = (int) (ticks % this.durations.length);
+        this.startTimes[position] = startTime;
+        this.durations[position] = duration;
+        this.overheads[position] = overhead;
+        this.gcTimes[position] = gcTime;
+        this.flags[position] = (byte) flags;
+        this.ticks = ticks + 1;
+    }
+
+    /**
+     * Gets the amount of ticks that can be kept.
+     *
+     * @return The capacity
+     */
+    public int capacity() {
+        return this.durations.length;
+    }
+
+    /**
+     * Gets the amount of ticks ever recorded.
+     *
+     * @return The ticks
+     */
+    public long ticks() {
+        return this.ticks;
+    }
+
+    /**
+     * Gets the amount of ticks currently kept.
+     *
+     * @return The size
+     */
+    public int size() {
+        return (int) Math.min(this.ticks, this.durations.length);
+    }
+
+    public long startTime(final int tick) {
+        return this.startTimes[this.position(tick)];
+    }
+
+    public long duration(final int tick) {
+        return this.durations[this.position(tick)];
+    }
+
+    public long overhead(final int tick) {
+        return this.overheads[this.position(tick)];
+    }
+
+    public long gcTime(final int tick) {
+        return this.gcTimes[this.position(tick)];
+    }
+
+    public int flags(final int tick) {
+        return this.flags[this.position(tick)];
+    }
+
+    public boolean violated(final int tick) {
+        return (this.flags(tick) & TickHistory.VIOLATED) != 0;
+    }
+
+    /**
+     * Gets whether a tick only went over budget because of a garbage
+     * collection pause.
+     *
+     * @param tick The tick
+     * @return Whether the violation was explained by a pause
+     */
+    public boolean gcExplained(final int tick) {
+        return (this.flags(tick) & TickHistory.GC_EXPLAINED) != 0;
+    }
+
+    /**
+     * Gets the amount of violation tiers a tick went over.
+     *
+     * @param tick The tick
+     * @return The severity, 0 if it stayed within budget
+     */
+    public int severity(final int tick) {
+        return Integer.bitCount(this.flags(tick) & ((1 << TimingDataStore.VIOLATION_TIERS) - 1));
+    }
+
+    /**
+     * Gets the ticks per second over the last ticks kept, measured from the
+     * start of the first one to the start of the last one.
+     *
+     * @param ticks The amount of ticks to look back
+     * @return The ticks per second, 0 if less than 2 ticks are kept
+     */
+    public double tps(final int ticks) {
+        final int size = this.size();
+        final int count = Math.min(ticks, size);
+        if (count < 2) {
+            return 0;
+        }
+        final long elapsed = this.startTime(size - 1) - this.startTime(size - count);
+        return elapsed <= 0 ? 0 : (count - 1) * 1E9 / elapsed;
+    }
+
+    private int position(final int tick) {
+        final long ticks = this.ticks;
+        final int size = (int) Math.min(ticks, this.durations.length);
+        if (tick < 0 || tick >= size) {
+            throw new IndexOutOfBoundsException("Tick " + tick + " is not kept, size " + size);
+        }
+        return (int) ((ticks - size + tick) % this.durations.length);
+    }
+}
@@ -24,26 +24,21 @@
  */
 package org.inspirenxe.timings.core.history;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import org.inspirenxe.timings.core.AbstractTiming;
+import com.google.gson.stream.JsonWriter;
 import org.inspirenxe.timings.core.TimingData;
-import org.inspirenxe.timings.core.util.JsonUtil;
+
+import java.io.IOException;
 
 class TimingHistoryEntry {
 
     final TimingData data;
     final TimingData[] children;
-    TimingHistoryEntry(final AbstractTiming timing) {
-        this.data = timing.data.copy();
-        this.children = timing.copyChildren();
+    TimingHistoryEntry(final TimingData data, final TimingData[] children) {
+        this.data = data;
+        this.children = children;
     }
 
-    JsonElement asJson() {
-        final JsonArray result = this.data.asJson();
-        if (this.children.length > 0) {
-            result.add(JsonUtil.mapArray(this.children, TimingData::asJson));
-        }
-        return result;
+    void writeJson(final JsonWriter out) throws IOException {
+        this.data.writeJson(out, this.children);
     }
-}
\ No newline at end of file
+}
@@ -39,4 +39,8 @@ public final class PingRecord {
         }
         this.avg = players.isEmpty() ? 0 : totalPing / players.size();
     }
+
+    public PingRecord(final double avg) {
+        this.avg = avg;
+    }
 }
@@ -24,8 +24,9 @@
  */
 package org.inspirenxe.timings.core.history.record;
 
-import com.google.gson.JsonElement;
-import org.inspirenxe.timings.core.util.JsonUtil;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 
 public final class ServerTicksRecord {
 
@@ -39,12 +40,13 @@ public final class ServerTicksRecord {
         this.timed = timedTicks - (timingsReportsPerMinute * 1200L);
     }
 
-    public JsonElement asJson() {
-        return JsonUtil.arrayOf(this.timed,
-                this.player,
-                this.entity,
-                this.activatedEntity,
-                this.blockEntity
-        );
+    public void writeJson(final JsonWriter out) throws IOException {
+        out.beginArray()
+                .value(this.timed)
+                .value(this.player)
+                .value(this.entity)
+                .value(this.activatedEntity)
+                .value(this.blockEntity)
+                .endArray();
     }
 }
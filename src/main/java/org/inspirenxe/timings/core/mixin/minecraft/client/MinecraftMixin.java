@@ -31,6 +31,9 @@ import org.inspirenxe.timings.core.VanillaTimingsEngine;
 import org.inspirenxe.timings.core.duck.EngineDuck;
 import org.spongepowered.api.Engine;
 import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
 @Mixin(Minecraft.class)
 public abstract class MinecraftMixin implements Engine, EngineDuck {
@@ -40,9 +43,16 @@ public abstract class MinecraftMixin implements Engine, EngineDuck {
     public VanillaTimingsEngine timingsManager() {
         if (this.timingsManager == null) {
             this.timingsManager = new VanillaTimingsEngine(Timings.instance().logger(), Timings.instance().environment(),
-                    new TimingIdentifier("Minecraft", "Client Tick", null, false));
+                    new TimingIdentifier("Minecraft", "Client Tick", null, false), false);
         }
 
         return this.timingsManager;
     }
+
+    @Inject(method = "close", at = @At(value = "RETURN"))
+    private void core$shutdownTimings(final CallbackInfo ci) {
+        if (this.timingsManager != null) {
+            this.timingsManager.shutdown();
+        }
+    }
 }
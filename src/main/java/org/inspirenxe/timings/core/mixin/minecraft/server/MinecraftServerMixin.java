@@ -44,7 +44,7 @@ public abstract class MinecraftServerMixin implements Engine, EngineDuck {
     public VanillaTimingsEngine timingsManager() {
         if (this.timingsManager == null) {
             this.timingsManager = new VanillaTimingsEngine(Timings.instance().logger(), Timings.instance().environment(),
-                    new TimingIdentifier("Minecraft", "Server Tick", null, false));
+                    new TimingIdentifier("Minecraft", "Server Tick", null, false), true);
         }
 
         return this.timingsManager;
@@ -59,4 +59,11 @@ public abstract class MinecraftServerMixin implements Engine, EngineDuck {
     private void core$tickEnd(final CallbackInfo ci) {
         this.timingsManager().engineTickTiming.stop();
     }
+
+    @Inject(method = "stopServer", at = @At(value = "RETURN"))
+    private void core$shutdownTimings(final CallbackInfo ci) {
+        if (this.timingsManager != null) {
+            this.timingsManager.shutdown();
+        }
+    }
 }
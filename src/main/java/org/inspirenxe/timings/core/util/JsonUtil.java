@@ -31,7 +31,9 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -121,4 +123,8 @@ public final class JsonUtil {
         return JsonUtil.gson.toJsonTree(value);
     }
 
+    public static void write(final JsonElement element, final JsonWriter out) throws IOException {
+        JsonUtil.gson.getAdapter(JsonElement.class).write(out, element);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,189 @@
+/*
+ * This file is part of timings-core, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) InspireNXE <https://inspirenxe.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.inspirenxe.timings.core.util;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * An int keyed table that automatically loads missing entries by calling a
+ * primitive loader function, without ever boxing the key.
+ * <p>
+ * Entries are kept densely in insertion order and located through an open
+ * addressed index, so iterating with {@link #valueAt(int)} touches only live
+ * entries and {@link #clear()} keeps every backing array for reuse. Once the
+ * table has grown to fit its working set, neither lookups nor loads of
+ * previously cleared keys allocate.
+ * <p>
+ * Keys must not be 0, which is reserved to mark empty index buckets.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @param <V> Value
+ */
+public final class LoadingIntTable<V> {
+
+    private static final int DEFAULT_EXPECTED_SIZE = 8;
+
+    private final IntFunction<V> loader;
+    private int[] keys;
+    private Object[] values;
+    // Position + 1 of the entry in keys/values, 0 being an empty bucket
+    private int[] index;
+    private int mask;
+    private int size;
+
+    public LoadingIntTable(final IntFunction<V> loader) {
+        this(LoadingIntTable.DEFAULT_EXPECTED_SIZE, loader);
+    }
+
+    public LoadingIntTable(final int expectedSize, final IntFunction<V> loader) {
+        this.loader = loader;
+        final int capacity = LoadingIntTable.indexSize(expectedSize);
+        this.index = new int[capacity];
+        this.mask = capacity - 1;
+        this.keys = new int[capacity >>> 1];
+        this.values = new Object[capacity >>> 1];
+    }
+
+    /**
+     * Gets the value for the key, loading it if it is not present.
+     *
+     * @param key Key, must not be 0
+     * @return The value, only null if the loader returned null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final int key) {
+        int bucket = LoadingIntTable.mix(key) & this.mask;
+        int position;
+        while ((position = this.index[bucket]) != 0) {
+            if (this.keys[position - 1] == key) {
+                return (V) this.values[position - 1];
+            }
+            bucket = (bucket + 1) & this.mask;
+        }
+
+        final V value = this.loader.apply(key);
+        if (value != null) {
+            if (this.size == this.keys.length) {
+                this.grow();
+                bucket = LoadingIntTable.mix(key) & this.mask;
+                while (this.index[bucket] != 0) {
+                    bucket = (bucket + 1) & this.mask;
+                }
+            }
+            this.keys[this.size] = key;
+            this.values[this.size] = value;
+            this.index[bucket] = ++this.size;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the value for the key without loading it.
+     *
+     * @param key Key, must not be 0
+     * @return The value or null if it is not present
+     */
+    @SuppressWarnings("unchecked")
+    public V getIfPresent(final int key) {
+        int bucket = LoadingIntTable.mix(key) & this.mask;
+        int position;
+        while ((position = this.index[bucket]) != 0) {
+            if (this.keys[position - 1] == key) {
+                return (V) this.values[position - 1];
+            }
+            bucket = (bucket + 1) & this.mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Gets the key at the position, in insertion order.
+     *
+     * @param position Position between 0 and {@link #size()}
+     * @return The key
+     */
+    public int keyAt(final int position) {
+        return this.keys[position];
+    }
+
+    /**
+     * Gets the value at the position, in insertion order.
+     *
+     * @param position Position between 0 and {@link #size()}
+     * @return The value
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(final int position) {
+        return (V) this.values[position];
+    }
+
+    public void clear() {
+        if (this.size == 0) {
+            return;
+        }
+        Arrays.fill(this.index, 0);
+        Arrays.fill(this.values, 0, this.size, null);
+        this.size = 0;
+    }
+
+    private void grow() {
+        final int capacity = this.index.length << 1;
+        this.keys = Arrays.copyOf(this.keys, capacity >>> 1);
+        this.values = Arrays.copyOf(this.values, capacity >>> 1);
+        this.index = new int[capacity];
+        this.mask = capacity - 1;
+        for (int position = 0; position < this.size; position++) {
+            int bucket = LoadingIntTable.mix(this.keys[position]) & this.mask;
+            while (this.index[bucket] != 0) {
+                bucket = (bucket + 1) & this.mask;
+            }
+            this.index[bucket] = position + 1;
+        }
+    }
+
+    private static int indexSize(final int expectedSize) {
+        // Keep the index at most half full
+        int capacity = 4;
+        while (capacity >>> 1 < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int mix(final int key) {
+        final int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}